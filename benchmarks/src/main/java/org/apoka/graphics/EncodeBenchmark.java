@@ -0,0 +1,41 @@
+package org.apoka.graphics;
+
+import org.apoka.tenprintcover.Cover;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PNG encoding of a drawn cover, as done by Image.save.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+    @Param({"400", "1600"})
+    int width;
+
+    @Param({"1", "6", "9"})
+    int level;
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    private Image image;
+    private PngEncoder encoder;
+
+    @Setup
+    public void setup() {
+        image = new Cover("Kafka on the Shore", "A novel", "Haruki Murakami", width, width * 3 / 2).draw();
+        encoder = new PngEncoder(level, parallel);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return encoder.toBytes(image);
+    }
+}
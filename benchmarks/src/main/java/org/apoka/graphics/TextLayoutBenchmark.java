@@ -0,0 +1,51 @@
+package org.apoka.graphics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Image.text on its two paths: wrapping words into lines, and chopping a word too long
+ * for a line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextLayoutBenchmark {
+    private static final String WORDS = "The Interesting Narrative of the Life of Olaudah Equiano, or Gustavus Vassa, the African. Written by Himself";
+    private static final String WORD = "Supercalifragilisticexpialidociousandevenlongerwordthatcannotfit";
+
+    private final Font font = FontCache.get("Noto Sans", 32f, 0.68f, true);
+    private Image image;
+    private Image.Session session;
+
+    @Setup
+    public void setup() {
+        image = new Image(400, 600);
+        session = image.open();
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public int[] wrap() {
+        return image.text(WORDS, 8, 16, 384, 400, Color.DARK_GRAY, font);
+    }
+
+    @Benchmark
+    public int[] chop() {
+        return image.text(WORD, 8, 16, 384, 400, Color.DARK_GRAY, font);
+    }
+
+    @Benchmark
+    public TextBlock layout() {
+        return TextBlock.layout(WORDS, 8, 16, 384, 400, font);
+    }
+}
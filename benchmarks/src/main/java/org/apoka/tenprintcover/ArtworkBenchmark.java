@@ -0,0 +1,60 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PETSCII artwork alone, for every grid size and both backends. The grid size follows
+ * the length of the title, see {@link Cover#breakGrid()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArtworkBenchmark {
+    private static final String LETTERS = "qwertyuiopasdfghjkl:zxcvbnm,;?<>@[]1234567890.=-+*/ ";
+
+    @Param({"2", "3", "4", "5", "6", "7", "8", "9", "10", "11"})
+    int gridCount;
+
+    @Param({"JAVA2D", "DIRECT"})
+    Image.Backend backend;
+
+    private Cover cover;
+    private Image image;
+    private Image.Session session;
+
+    @Setup
+    public void setup() {
+        cover = coverWithGrid(gridCount);
+        image = new Image(Cover.DEFAULT_WIDTH, Cover.DEFAULT_HEIGHT, backend);
+        session = image.open();
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+    }
+
+    static Cover coverWithGrid(int count) {
+        StringBuilder title = new StringBuilder();
+        for (int length = 1; length <= 80; length++) {
+            title.append(LETTERS.charAt((length - 1) % LETTERS.length()));
+            Cover cover = new Cover(title.toString(), "", "Author");
+            if (cover.breakGrid().count == count) {
+                return cover;
+            }
+        }
+        throw new IllegalArgumentException("No title gives a grid of " + count);
+    }
+
+    @Benchmark
+    public Image drawArtwork() {
+        cover.drawArtwork(image);
+        return image;
+    }
+}
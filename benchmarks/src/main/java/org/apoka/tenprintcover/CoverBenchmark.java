@@ -0,0 +1,25 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole cover: colors, grid, artwork and text, onto a new raster.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoverBenchmark {
+    @Param({"100", "400", "1600"})
+    int width;
+
+    @Benchmark
+    public Image draw() {
+        return new Cover("Kafka on the Shore", "A novel", "Haruki Murakami", width, width * 3 / 2).draw();
+    }
+}
@@ -0,0 +1,47 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.apoka.graphics.RasterPool;
+import org.apoka.graphics.RenderQuality;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole cover at every render quality, into pooled RGB rasters as batch mode and the
+ * server draw them. Supersampling only applies to HIGH.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderQualityBenchmark {
+    @Param({"DRAFT", "STANDARD", "HIGH", "HIGH_2X", "HIGH_4X"})
+    String quality;
+
+    @Param({"JAVA2D", "DIRECT"})
+    Image.Backend backend;
+
+    @Param({"400", "1600"})
+    int width;
+
+    private final RasterPool pool = new RasterPool();
+
+    @Benchmark
+    public Image draw() {
+        Cover cover = new Cover("Kafka on the Shore", "A novel", "Haruki Murakami", width, width * 3 / 2);
+        cover.setBackend(backend);
+        cover.setRasterPool(pool);
+        cover.setPixelFormat(Image.PixelFormat.RGB);
+        int x = quality.indexOf("_");
+        cover.setRenderQuality(RenderQuality.valueOf(x < 0 ? quality : quality.substring(0, x)));
+        if (x >= 0) {
+            cover.setSupersampling(quality.charAt(x + 1) - '0');
+        }
+        Image image = cover.draw();
+        cover.release();
+        return image;
+    }
+}
@@ -0,0 +1,53 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Title, subtitle and author: font selection, layout and glyph rendering.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextBenchmark {
+    @Param({"short", "long", "cjk"})
+    String title;
+
+    private Cover cover;
+    private Image image;
+    private Image.Session session;
+
+    @Setup
+    public void setup() {
+        switch (title) {
+            case "short":
+                cover = new Cover("Max", "", "Someone");
+                break;
+            case "long":
+                cover = new Cover("The Interesting Narrative of the Life of Olaudah Equiano, or Gustavus Vassa, the African. Written by Himself",
+                        "Volume one", "Olaudah Equiano");
+                break;
+            default:
+                cover = new Cover("李白诗选", "唐诗", "李白");
+                break;
+        }
+        image = new Image(Cover.DEFAULT_WIDTH, Cover.DEFAULT_HEIGHT);
+        session = image.open();
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public Image drawText() {
+        cover.drawText(image);
+        return image;
+    }
+}
@@ -0,0 +1,127 @@
+package org.apoka.graphics;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Base fonts loaded from font files instead of being looked up among the system fonts,
+ * which makes AWT enumerate and parse every installed font and falls back to Dialog on
+ * hosts without the family. Loaded once, when the class is initialized, from:
+ * <ol>
+ *     <li>the directory named by the {@value #FONTS_PROPERTY} system property, if set;</li>
+ *     <li>otherwise the {@code /fonts/} directory of the classpath.</li>
+ * </ol>
+ * Each family is looked up as {@code <file>-Regular} and {@code <file>-Bold} with a
+ * {@code .ttf} or {@code .otf} extension, for instance {@code NotoSans-Regular.ttf}.
+ * Families without a regular file are left to the system fonts.
+ *
+ * Files of a directory are handed to {@link Font#createFont(int, java.io.File)}, which
+ * reads them in place; classpath resources are copied once to a temporary file by AWT.
+ * {@link #getSource()} identifies the files loaded, for keys of rendered covers.
+ */
+public final class BundledFonts {
+    public static final String FONTS_PROPERTY = "tenprintcover.fonts";
+    private static final String[][] FILES = {
+            {"Noto Sans", "NotoSans"},
+            {"Noto Sans CJK SC", "NotoSansCJKsc"},
+    };
+    private static final String[] EXTENSIONS = {".ttf", ".otf"};
+    private static final Map<String, Font[]> FONTS = new HashMap<>();
+    private static final String SOURCE = load(FONTS);
+
+    private BundledFonts() {
+    }
+
+    /**
+     * @return the base font of the family with size 1, or null if it is not bundled.
+     * When only the regular file is bundled, it is also returned for bold.
+     */
+    public static Font get(String family, boolean bold) {
+        Font[] fonts = FONTS.get(family);
+        if (fonts == null) {
+            return null;
+        }
+        return bold && fonts[1] != null ? fonts[1] : fonts[0];
+    }
+
+    /**
+     * @return true if the bold variant of the family has its own file
+     */
+    public static boolean hasBold(String family) {
+        Font[] fonts = FONTS.get(family);
+        return fonts != null && fonts[1] != null;
+    }
+
+    /**
+     * @return the files loaded, each as its path, size and modification time, or its
+     * resource and CRC-32; empty if every family is left to the system fonts
+     */
+    public static String getSource() {
+        return SOURCE;
+    }
+
+    /**
+     * Load the fonts into the map.
+     * @return the source of the files loaded, see {@link #getSource()}
+     */
+    private static String load(Map<String, Font[]> fonts) {
+        String dir = System.getProperty(FONTS_PROPERTY);
+        StringJoiner source = new StringJoiner(";");
+        for (String[] file : FILES) {
+            Font regular = dir != null ? fromDirectory(Paths.get(dir), file[1] + "-Regular", source)
+                    : fromClasspath(file[1] + "-Regular", source);
+            if (regular == null) {
+                continue;
+            }
+            Font bold = dir != null ? fromDirectory(Paths.get(dir), file[1] + "-Bold", source)
+                    : fromClasspath(file[1] + "-Bold", source);
+            fonts.put(file[0], new Font[]{regular, bold});
+        }
+        return source.toString();
+    }
+
+    private static Font fromDirectory(Path dir, String name, StringJoiner source) {
+        for (String extension : EXTENSIONS) {
+            Path path = dir.resolve(name + extension);
+            if (Files.isRegularFile(path)) {
+                try {
+                    Font font = Font.createFont(Font.TRUETYPE_FONT, path.toFile());
+                    source.add(path.toAbsolutePath() + ":" + Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis());
+                    return font;
+                } catch (FontFormatException | IOException e) {
+                    throw new IllegalArgumentException("Could not load the font " + path + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Font fromClasspath(String name, StringJoiner source) {
+        for (String extension : EXTENSIONS) {
+            String resource = "/fonts/" + name + extension;
+            try (InputStream in = BundledFonts.class.getResourceAsStream(resource)) {
+                if (in != null) {
+                    CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+                    Font font = Font.createFont(Font.TRUETYPE_FONT, checked);
+                    //createFont reads the whole stream, but make sure the checksum covers the file.
+                    checked.transferTo(OutputStream.nullOutputStream());
+                    source.add(resource + ":" + checked.getChecksum().getValue());
+                    return font;
+                }
+            } catch (FontFormatException | IOException e) {
+                throw new IllegalArgumentException("Could not load the font " + resource + ": " + e.getMessage(), e);
+            }
+        }
+        return null;
+    }
+}
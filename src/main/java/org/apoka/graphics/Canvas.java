@@ -0,0 +1,31 @@
+package org.apoka.graphics;
+
+import java.awt.*;
+
+/**
+ * Drawing primitives used to compose a cover. Implemented by the raster {@link Image}
+ * and by {@link Scene.Recorder}, which keeps the primitives for later rendering.
+ */
+public interface Canvas {
+    int getWidth();
+
+    int getHeight();
+
+    void triangle(int x1, int y1, int x2, int y2, int x3, int y3, Color color);
+
+    void rect(int x, int y, int width, int height, Color color);
+
+    void ellipse(int x, int y, int width, int height, Color color);
+
+    default void arc(int x, int y, int width, int height, int start, int angle, Color color) {
+        arc(x, y, width, height, start, angle, color, 1);
+    }
+
+    void arc(int x, int y, int width, int height, int start, int angle, Color color, int thick);
+
+    /**
+     * Draw the text wrapped into the bounding box.
+     * @return {@code {nlines, fontHeight}}, the number of lines drawn and the height of a line
+     */
+    int[] text(String text, int x, int y, int width, int height, Color color, Font font);
+}
@@ -0,0 +1,92 @@
+package org.apoka.graphics;
+
+import java.awt.*;
+import java.awt.font.TextAttribute;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of fonts derived from a family name, size, width and weight. Building a
+ * {@link Font} from attributes is not free and covers keep asking for the same few.
+ * Families found in {@link BundledFonts} are derived from their base font, the others
+ * are looked up among the system fonts.
+ */
+public final class FontCache {
+    private static final int MAX_CACHED = 1024;
+    private static final Map<Key, Font> FONTS = new ConcurrentHashMap<>();
+
+    private FontCache() {
+    }
+
+    /**
+     * @param family the font family name
+     * @param size the size in points
+     * @param width the {@link TextAttribute#WIDTH} of the font, 1 for regular
+     * @param bold bold or regular weight
+     */
+    public static Font get(String family, float size, float width, boolean bold) {
+        Key key = new Key(family, size, width, bold);
+        Font font = FONTS.get(key);
+        if (font == null) {
+            if (FONTS.size() >= MAX_CACHED) {
+                FONTS.clear();
+            }
+            font = FONTS.computeIfAbsent(key, FontCache::create);
+        }
+        return font;
+    }
+
+    private static Font create(Key key) {
+        Map<TextAttribute, Object> attributes = new HashMap<>();
+        attributes.put(TextAttribute.SIZE, key.size);
+        attributes.put(TextAttribute.WIDTH, key.width);
+
+        Font base = BundledFonts.get(key.family, key.bold);
+        if (base != null) {
+            //A bold file is bold already, only a regular one needs a synthetic weight.
+            boolean synthetic = key.bold && !BundledFonts.hasBold(key.family);
+            attributes.put(TextAttribute.WEIGHT, synthetic ? TextAttribute.WEIGHT_BOLD : TextAttribute.WEIGHT_REGULAR);
+            return base.deriveFont(attributes);
+        }
+
+        attributes.put(TextAttribute.FAMILY, key.family);
+        if(key.bold) {
+            attributes.put(TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD);
+        } else {
+            attributes.put(TextAttribute.WEIGHT, TextAttribute.WEIGHT_REGULAR);
+        }
+
+        return new Font(attributes);
+    }
+
+    private static final class Key {
+        private final String family;
+        private final float size;
+        private final float width;
+        private final boolean bold;
+
+        Key(String family, float size, float width, boolean bold) {
+            this.family = family;
+            this.size = size;
+            this.width = width;
+            this.bold = bold;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return family.equals(key.family) && Float.compare(size, key.size) == 0
+                    && Float.compare(width, key.width) == 0 && bold == key.bold;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(family, size, width, bold);
+        }
+    }
+}
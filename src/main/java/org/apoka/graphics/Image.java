@@ -1,38 +1,388 @@
 package org.apoka.graphics;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Image implements Canvas {
+    /**
+     * How shapes are rasterized. Text always goes through Java2D.
+     */
+    public enum Backend {
+        /** Every primitive is drawn with a Graphics2D. */
+        JAVA2D,
+        /**
+         * Opaque rects, triangles, ellipses and arcs are filled span by span straight into
+         * the pixel array, see {@link PixelRasterizer}. Ellipses and arcs may differ from
+         * Java2D on a few edge pixels.
+         */
+        DIRECT
+    }
+
+    /**
+     * How the pixels are stored.
+     */
+    public enum PixelFormat {
+        /** An int per pixel, with alpha. Needed by images composited onto others. */
+        ARGB(BufferedImage.TYPE_INT_ARGB, 4),
+        /**
+         * An int per pixel, without alpha. Covers are opaque, so they draw the same pixels
+         * as with ARGB, and the direct backend still applies.
+         */
+        RGB(BufferedImage.TYPE_INT_RGB, 4),
+        /**
+         * Three bytes per pixel, blue first: a quarter less memory, but shapes always go
+         * through Java2D and encoding copies the pixels into ints.
+         */
+        BGR(BufferedImage.TYPE_3BYTE_BGR, 3);
+
+        private final int type;
+        private final int bytesPerPixel;
+
+        PixelFormat(int type, int bytesPerPixel) {
+            this.type = type;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        public int getBytesPerPixel() {
+            return bytesPerPixel;
+        }
+    }
+
+    /** The largest factor images can be supersampled by, see {@link Scene#render(Image, int)}. */
+    public static final int MAX_SUPERSAMPLING = 8;
+
+    private static final PngEncoder PNG = new PngEncoder();
+    private static final BasicStroke THIN = new BasicStroke(1);
+    private static final LongAdder CONTEXTS = new LongAdder();
 
-public class Image {
     private BufferedImage bufImage;
+    private final PixelFormat format;
+    private final RenderQuality quality;
+    /** Pixels per unit of the coordinates of the primitives, above 1 when supersampling. */
+    private final int scale;
+    private final PixelRasterizer raster;
+    /** Row of the drawing held by the first row of the image, not 0 for a strip. */
+    private final int origin;
+    /** Rows that are drawn into, [top, bottom). Less than the whole image for a band. */
+    private final int top;
+    private final int bottom;
+    private int[] spans;
+    private Session session;
+    private PngEncoder pngEncoder = PNG;
+    /** The loan of this image by a pool, if it is lent. */
+    RasterPool.Loan loan;
 
     public Image(int width, int height) {
-        bufImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this(width, height, Backend.JAVA2D);
+    }
+
+    public Image(int width, int height, Backend backend) {
+        this(width, height, backend, PixelFormat.ARGB);
+    }
+
+    public Image(int width, int height, Backend backend, PixelFormat format) {
+        this(width, height, backend, format, RenderQuality.STANDARD);
+    }
+
+    /**
+     * @param quality how the primitives are rasterized. With {@link RenderQuality#HIGH}
+     * the backend is always {@link Backend#JAVA2D}.
+     */
+    public Image(int width, int height, Backend backend, PixelFormat format, RenderQuality quality) {
+        this(width, height, backend, format, quality, 1);
+    }
+
+    private Image(int width, int height, Backend backend, PixelFormat format, RenderQuality quality, int scale) {
+        bufImage = new BufferedImage(width * scale, height * scale, format.type);
+        this.format = format;
+        this.quality = quality;
+        this.scale = scale;
+        raster = backend == Backend.DIRECT && quality.isAliased() && scale == 1 ? PixelRasterizer.of(bufImage) : null;
+        origin = 0;
+        top = 0;
+        bottom = height * scale;
+    }
+
+    /**
+     * An image of factor times the size, on which primitives are drawn with the
+     * coordinates of an image of the given size, to be averaged down by {@link #downscale}.
+     */
+    static Image supersampled(int width, int height, int factor, PixelFormat format, RenderQuality quality) {
+        return new Image(width, height, Backend.JAVA2D, format, quality, factor);
+    }
+
+    private Image(Image image, int top, int bottom) {
+        bufImage = image.bufImage;
+        format = image.format;
+        quality = image.quality;
+        scale = image.scale;
+        raster = image.raster != null ? image.raster.clip(top, bottom) : null;
+        origin = image.origin;
+        this.top = Math.max(top, image.top);
+        this.bottom = Math.min(bottom, image.bottom);
+    }
+
+    private Image(Image image, int origin) {
+        bufImage = image.bufImage;
+        format = image.format;
+        quality = image.quality;
+        scale = image.scale;
+        raster = image.raster != null ? PixelRasterizer.of(bufImage, origin) : null;
+        this.origin = origin;
+        top = origin;
+        bottom = origin + bufImage.getHeight();
+    }
+
+    /**
+     * A band of this image: it shares the pixels and the coordinates of this image, but
+     * everything drawn through it is clipped to the rows [top, bottom). Bands of disjoint
+     * rows can be drawn into from different threads.
+     */
+    public Image band(int top, int bottom) {
+        spans = null;
+        return new Image(this, top, bottom);
+    }
+
+    /**
+     * A strip of a taller drawing: it shares the pixels of this image, which hold the rows
+     * [origin, origin + height) of the drawing. Primitives are given in the coordinates of
+     * the drawing and only the rows of the strip are kept, so a drawing can be rendered one
+     * strip after the other into the same pixels.
+     */
+    Image strip(int origin) {
+        spans = null;
+        return new Image(this, origin);
+    }
+
+    public Backend getBackend() {
+        return raster != null ? Backend.DIRECT : Backend.JAVA2D;
+    }
+
+    public PixelFormat getPixelFormat() {
+        return format;
+    }
+
+    public RenderQuality getQuality() {
+        return quality;
+    }
+
+    public int getWidth() {
+        return bufImage.getWidth();
+    }
+
+    public int getHeight() {
+        return bufImage.getHeight();
+    }
+
+    /**
+     * Composite another image at the given position. Transparent pixels of the source
+     * leave this image untouched, parts falling outside of this image are clipped.
+     */
+    public void image(Image image, int x, int y) {
+        this.spans = null;
+        int[] spans = image.opaqueSpans();
+        if (spans == null || format == PixelFormat.BGR) {
+            Session s = acquire();
+            try {
+                s.g.drawImage(image.bufImage, x, y, null);
+            } finally {
+                release(s);
+            }
+            return;
+        }
+
+        //The source is made of opaque spans over a transparent background, so copying
+        //the spans is the same as alpha compositing the whole image. An RGB destination
+        //ignores the alpha byte of the copied pixels.
+        int[] src = ((DataBufferInt) image.bufImage.getRaster().getDataBuffer()).getData();
+        int[] dst = ((DataBufferInt) bufImage.getRaster().getDataBuffer()).getData();
+        int srcWidth = image.getWidth();
+        int dstWidth = getWidth();
+        for (int i = 0; i < spans.length; i += 3) {
+            int row = y + spans[i];
+            int start = x + spans[i + 1];
+            int end = start + spans[i + 2];
+            if (row < top || row >= bottom) {
+                continue;
+            }
+            int from = Math.max(start, 0);
+            int to = Math.min(end, dstWidth);
+            if (from < to) {
+                System.arraycopy(src, spans[i] * srcWidth + spans[i + 1] + from - start, dst, (row - origin) * dstWidth + from, to - from);
+            }
+        }
+    }
+
+    /**
+     * Runs of opaque pixels as (row, column, length) triples, or null if the image
+     * has partially transparent pixels and needs real blending. Computed lazily and
+     * dropped whenever the image is drawn into.
+     */
+    private int[] opaqueSpans() {
+        if (spans != null || format != PixelFormat.ARGB) {
+            return spans;
+        }
+
+        int[] data = ((DataBufferInt) bufImage.getRaster().getDataBuffer()).getData();
+        int width = getWidth();
+        int[] runs = new int[48];
+        int count = 0;
+        for (int row = 0; row < getHeight(); row++) {
+            int col = 0;
+            while (col < width) {
+                int argb = data[row * width + col];
+                if (argb == 0) {
+                    col++;
+                    continue;
+                }
+                if ((argb >>> 24) != 0xff) {
+                    return null;
+                }
+                int start = col;
+                while (col < width && (data[row * width + col] >>> 24) == 0xff) {
+                    col++;
+                }
+                if (count + 3 > runs.length) {
+                    runs = Arrays.copyOf(runs, runs.length * 2);
+                }
+                runs[count++] = row;
+                runs[count++] = start;
+                runs[count++] = col - start;
+            }
+        }
+        spans = Arrays.copyOf(runs, count);
+        return spans;
+    }
+
+    /**
+     * Open a drawing session: every primitive issued until the session is closed shares
+     * one graphics context, and color, stroke, font and hints are only changed when they
+     * differ from the previous primitive. Without an open session each primitive creates
+     * and disposes its own context. Sessions may be nested, the context is disposed when
+     * the outermost one is closed. {@link #session(Runnable)} opens and closes one around
+     * a block of drawing.
+     */
+    public Session open() {
+        if (session == null) {
+            session = new Session();
+        }
+        session.depth++;
+        return session;
+    }
+
+    /**
+     * Run the drawing in a session, see {@link #open()}.
+     * <pre>
+     *     image.session(() -> {
+     *         image.rect(...);
+     *         image.ellipse(...);
+     *     });
+     * </pre>
+     */
+    public void session(Runnable drawing) {
+        Session s = open();
+        try {
+            drawing.run();
+        } finally {
+            s.close();
+        }
+    }
+
+    /**
+     * @return the number of graphics contexts created by all images so far, for the
+     * tests checking that a cover does not create one per primitive
+     */
+    static long contexts() {
+        return CONTEXTS.sum();
+    }
+
+    private Session acquire() {
+        return session != null ? session : new Session();
+    }
+
+    private void release(Session s) {
+        if (s != session) {
+            s.g.dispose();
+        }
+    }
+
+    /**
+     * @return true if nothing drawn between the rows y0 and y1, both included, can
+     * land in the rows of this image, so the primitive can be skipped
+     */
+    private boolean outside(int y0, int y1) {
+        return y1 < top || y0 >= bottom;
+    }
+
+    /**
+     * @return true if the color can be written as is into the pixel array
+     */
+    private boolean direct(Color color) {
+        return raster != null && color.getAlpha() == 255;
     }
 
     public void triangle(int x1, int y1, int x2, int y2, int x3, int y3, Color color){
-        int[] xs = {x1, x2, x3};
-        int[] ys = {y1, y2, y3};
+        spans = null;
+        if (outside(Math.min(y1, Math.min(y2, y3)), Math.max(y1, Math.max(y2, y3)))) {
+            return;
+        }
+        if (direct(color)) {
+            raster.triangle(x1, y1, x2, y2, x3, y3, color.getRGB());
+            return;
+        }
+        Session s = acquire();
+        try {
+            s.xs[0] = x1; s.xs[1] = x2; s.xs[2] = x3;
+            s.ys[0] = y1; s.ys[1] = y2; s.ys[2] = y3;
 
-        Graphics g = bufImage.getGraphics();
-        g.setColor(color);
-        g.fillPolygon(xs, ys, 3);
+            s.fill(color);
+            s.g.fillPolygon(s.xs, s.ys, 3);
+        } finally {
+            release(s);
+        }
     }
 
     public void rect(int x, int y, int width, int height, Color color) {
-        Graphics g = bufImage.getGraphics();
-        g.setColor(color);
-        g.fillRect(x, y, width, height);
+        spans = null;
+        if (outside(y, y + height)) {
+            return;
+        }
+        if (direct(color)) {
+            raster.rect(x, y, width, height, color.getRGB());
+            return;
+        }
+        Session s = acquire();
+        try {
+            s.fill(color);
+            s.g.fillRect(x, y, width, height);
+        } finally {
+            release(s);
+        }
     }
 
     public void ellipse(int x, int y, int width, int height, Color color) {
-        Graphics g = bufImage.getGraphics();
-        g.setColor(color);
-
-        g.fillOval(x, y, width, height);
+        spans = null;
+        if (outside(y, y + height)) {
+            return;
+        }
+        if (direct(color)) {
+            raster.ellipse(x, y, width, height, color.getRGB());
+            return;
+        }
+        Session s = acquire();
+        try {
+            s.fill(color);
+            s.g.fillOval(x, y, width, height);
+        } finally {
+            release(s);
+        }
     }
 
     public void arc(int x, int y, int width, int height, int start, int angle, Color color) {
@@ -40,79 +390,278 @@ public class Image {
     }
 
     public void arc(int x, int y, int width, int height, int start, int angle, Color color, int thick) {
-        Graphics2D g = (Graphics2D) bufImage.getGraphics();
-        g.setColor(color);
-
-        //set stroke
-        g.setStroke(new BasicStroke(thick));
-        g.drawArc(x+thick/2, y+thick/2, width-thick*2, height-thick*2, start, angle);
+        spans = null;
+        //The stroke and its square caps reach at most thick past the box of the curve.
+        if (outside(y + thick/2 - thick - 1, y + thick/2 + Math.max(height - thick*2, 0) + thick + 1)) {
+            return;
+        }
+        if (direct(color)) {
+            raster.arc(x+thick/2, y+thick/2, width-thick*2, height-thick*2, start, angle, thick, color.getRGB());
+            return;
+        }
+        Session s = acquire();
+        try {
+            s.color(color);
+            s.stroke(thick);
+            s.g.drawArc(x+thick/2, y+thick/2, width-thick*2, height-thick*2, start, angle);
+        } finally {
+            release(s);
+        }
     }
 
     public int[] text(String text, int x, int y, int width, int height, Color color, Font font) {
-        //Prepare the context for text rendering.
-        Graphics2D g = (Graphics2D) bufImage.getGraphics();
-        g.setColor(color);
-
-        g.setFont(font);
-        //antialiasing
-        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-
-        //Get some font metrics.
-        FontMetrics metrics = g.getFontMetrics(font);
-
-        int fontHeight = metrics.getHeight();
-
-        //Initialize text cursor to the baseline of the font.
-        int w_x = x;
-        int w_y = metrics.getAscent() + y;
-
-        //Draw the text one line at a time and ensure the bounding box.
-        String line = "";
-        int nlines = 1;
-        for(String word : text.split(" ")) {
-
-            int line_width = metrics.stringWidth(String.join(" ", line, word).trim());
-            if(line_width<width) {
-                line = String.join(" ", line, word).trim();
-            } else if(line.isEmpty()) {
-                //First word of the line extends beyond the line: chop and done.
-                g.drawString(chop(metrics, word, width), w_x, w_y);
-                return new int[]{nlines, fontHeight};
-            } else {
-                //Filled a line, render it, and move on to the next line.
-                g.drawString(line, w_x, w_y);
-                line = word;
-                w_y += metrics.getHeight();
+        spans = null;
+        Session s = acquire();
+        try {
+            //Prepare the context for text rendering.
+            s.text(color, font);
+
+            //Other qualities lay the text out with the metrics of the standard one, so
+            //that its lines do not change with the quality.
+            TextBlock block = quality == RenderQuality.STANDARD && scale == 1
+                    ? TextBlock.layout(text, x, y, width, height, TextMeasure.get(font, s.g))
+                    : TextBlock.layout(text, x, y, width, height, font);
+            drawLines(s, block);
+
+            return block.result();
+        } finally {
+            release(s);
+        }
+    }
+
+    /**
+     * Draw text laid out beforehand with {@link TextBlock#layout}.
+     */
+    void text(TextBlock block, Color color, Font font) {
+        spans = null;
+        if (!block.intersects(top, bottom)) {
+            return;
+        }
+        Session s = acquire();
+        try {
+            s.text(color, font);
+            drawLines(s, block);
+        } finally {
+            release(s);
+        }
+    }
+
+    private void drawLines(Session s, TextBlock block) {
+        for (int i = 0; i < block.getLineCount(); i++) {
+            s.g.drawString(block.getLine(i), block.getX(), block.getBaseline(i));
+        }
+    }
+
+    /**
+     * Encode the PNGs of {@link #save}, {@link #write} and {@link #toPng} with that
+     * encoder, for another deflate level or parallel chunks. Null for the default one,
+     * level 6 on a single thread.
+     */
+    public void setPngEncoder(PngEncoder pngEncoder) {
+        this.pngEncoder = pngEncoder != null ? pngEncoder : PNG;
+    }
+
+    public PngEncoder getPngEncoder() {
+        return pngEncoder;
+    }
+
+    public void save(String filename) throws IOException {
+        pngEncoder.write(this, Paths.get(filename));
+    }
 
-                if(w_y > height) {
-                    return new int[]{nlines, fontHeight};
+    /**
+     * Encode the image as PNG to the stream. The stream is left open.
+     */
+    public void write(OutputStream out) throws IOException {
+        pngEncoder.write(this, out);
+    }
+
+    /**
+     * @return the image encoded as PNG
+     */
+    public byte[] toPng() throws IOException {
+        return pngEncoder.toBytes(this);
+    }
+
+    /**
+     * @return the pixels of the image, row by row, as ARGB ints. The alpha byte is
+     * meaningless for an RGB image, see {@link #isOpaque()}.
+     */
+    int[] pixels() {
+        if (format != PixelFormat.BGR) {
+            return ((DataBufferInt) bufImage.getRaster().getDataBuffer()).getData();
+        }
+        return bufImage.getRGB(0, 0, getWidth(), getHeight(), null, 0, getWidth());
+    }
+
+    /**
+     * @return true if the format has no alpha channel, so every pixel is opaque
+     */
+    boolean isOpaque() {
+        return format != PixelFormat.ARGB;
+    }
+
+    /**
+     * Average every factor×factor block of pixels of the source, an image factor times
+     * as large, into a pixel of this image. Channels are averaged independently, which
+     * is exact for opaque images.
+     */
+    void downscale(Image source, int factor) {
+        spans = null;
+        int width = getWidth();
+        int height = getHeight();
+        if (factor < 1 || factor > MAX_SUPERSAMPLING) {
+            throw new IllegalArgumentException("The supersampling factor must be between 1 and " + MAX_SUPERSAMPLING);
+        }
+        if (source.getWidth() != width * factor || source.getHeight() != height * factor) {
+            throw new IllegalArgumentException("The source must be " + factor + " times as large");
+        }
+        int[] src = source.pixels();
+        int[] dst = format != PixelFormat.BGR ? pixels() : null;
+        int srcWidth = source.getWidth();
+        //The four channels of a block are summed at once, in 16 bit lanes of a long:
+        //blue, red, green and alpha from the lowest. An area of at most 64 pixels of 255
+        //fits in a lane.
+        long[] sums = new long[width];
+        int[] row = new int[width];
+        int area = factor * factor;
+        int half = area / 2;
+        //Divides by the area with a multiply, exact for the sums of at most 64 pixels.
+        long reciprocal = ((1L << 24) + area - 1) / area;
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(sums, 0);
+            int i = y * factor * srcWidth;
+            for (int dy = 0; dy < factor; dy++) {
+                for (int x = 0; x < width; x++) {
+                    long sum = sums[x];
+                    for (int dx = 0; dx < factor; dx++) {
+                        int argb = src[i++];
+                        sum += (argb & 0xff00ffL) | (argb & 0xff00ff00L) << 24;
+                    }
+                    sums[x] = sum;
                 }
-                nlines++;
+            }
+            for (int x = 0; x < width; x++) {
+                long sum = sums[x];
+                row[x] = average(sum >>> 48, half, reciprocal) << 24 | average(sum >>> 16, half, reciprocal) << 16
+                        | average(sum >>> 32, half, reciprocal) << 8 | average(sum, half, reciprocal);
+            }
+            if (dst != null) {
+                System.arraycopy(row, 0, dst, y * width, width);
+            } else {
+                bufImage.setRGB(0, y, width, 1, row, 0, width);
             }
         }
+    }
 
-        g.drawString(line, w_x, w_y);
+    /**
+     * @return the lowest lane of the sums divided by the area, rounded
+     */
+    private static int average(long sums, int half, long reciprocal) {
+        return (int) (((sums & 0xffff) + half) * reciprocal >>> 24);
+    }
 
-        return new int[]{nlines, fontHeight};
+    /**
+     * Reset every pixel to 0, transparent or black, before the image is used again.
+     */
+    void clear() {
+        spans = null;
+        if (format == PixelFormat.BGR) {
+            Arrays.fill(((DataBufferByte) bufImage.getRaster().getDataBuffer()).getData(), (byte) 0);
+        } else {
+            Arrays.fill(((DataBufferInt) bufImage.getRaster().getDataBuffer()).getData(), 0);
+        }
     }
 
-    private String chop(FontMetrics metrics, String word, int width) {
-        String total = "";
+    /**
+     * A graphics context shared by the primitives drawn while it is open, see {@link #open()}.
+     */
+    public final class Session implements AutoCloseable {
+        private final Graphics2D g = bufImage.createGraphics();
+        private final int[] xs = new int[3];
+        private final int[] ys = new int[3];
+        private int depth;
+        private Color color;
+        private int stroke = 1;
+        private BasicStroke wide;
+        private Font font;
+        private boolean textAntialiasing;
 
-        for(char c : word.toCharArray()) {
-            int total_width = metrics.stringWidth(total+c+"…");
+        private Session() {
+            CONTEXTS.increment();
+            quality.apply(g);
+            if (origin != 0) {
+                g.translate(0, -origin);
+            }
+            if (scale != 1) {
+                g.scale(scale, scale);
+            }
+            if (top > origin || bottom < origin + getHeight()) {
+                g.clipRect(0, top, getWidth(), bottom - top);
+            }
+        }
 
-            if(total_width >= width) {
-                return total + "…";
+        private void color(Color c) {
+            if (!c.equals(color)) {
+                g.setColor(c);
+                color = c;
             }
+        }
 
-            total += c;
+        /**
+         * Prepare a fill. Java2D picks its fill pipeline according to the stroke too,
+         * so the default stroke is restored to fill exactly like a fresh context.
+         */
+        private void fill(Color c) {
+            color(c);
+            stroke(1);
         }
 
-        throw new RuntimeException("Should not be here, else 'word' fit into the bounding box");
-    }
+        /**
+         * Arcs and fills alternate between cells, so the strokes are kept rather than
+         * created anew on every switch.
+         */
+        private void stroke(int thick) {
+            if (thick != stroke) {
+                if (thick == 1) {
+                    g.setStroke(THIN);
+                } else {
+                    if (wide == null || wide.getLineWidth() != thick) {
+                        wide = new BasicStroke(thick);
+                    }
+                    g.setStroke(wide);
+                }
+                stroke = thick;
+            }
+        }
 
-    public void save(String filename) throws IOException {
-        ImageIO.write(bufImage, "png", new File(filename));
+        private void font(Font f) {
+            if (!f.equals(font)) {
+                g.setFont(f);
+                font = f;
+            }
+        }
+
+        /**
+         * Prepare text. Without antialiasing Java2D draws glyphs as outlines under a wide
+         * stroke, so the default stroke is restored like for a fill.
+         */
+        private void text(Color c, Font f) {
+            color(c);
+            font(f);
+            stroke(1);
+            if (!textAntialiasing) {
+                g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, quality.getTextAntialiasing());
+                textAntialiasing = true;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (session == this && --depth == 0) {
+                g.dispose();
+                session = null;
+            }
+        }
     }
 }
@@ -0,0 +1,320 @@
+package org.apoka.graphics;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Rasterizes flat, opaque PETSCII primitives straight into the pixel array of an
+ * int-packed {@link BufferedImage}, without going through Java2D.
+ *
+ * Coverage follows the Java2D rules for non antialiased shapes with stroke
+ * normalization: a polygon pixel is painted when the point a quarter pixel inside its
+ * top left corner, (px + 0.25, py + 0.25), falls inside the shape, left and top edges
+ * included. Rectangles match Java2D exactly and triangles nearly so. Ellipses and arcs
+ * are computed from the exact curves, while Java2D flattens Bezier approximations and
+ * strokes them with its own offset curves, so some edge pixels differ: about 0.25% of
+ * the pixels of an ellipse and 3% of those of a thick arc.
+ */
+final class PixelRasterizer {
+    /** Sample point of a pixel for polygons and strokes, relative to its top left corner. */
+    private static final double SAMPLE = 0.25;
+    /**
+     * Java2D fills the polygon flattened from the Bezier curves of an ellipse, which lies
+     * inside the true curve. Shrinking the radii by this much matches it best.
+     */
+    private static final double ELLIPSE_SHRINK = 0.125;
+    /** Same for the center line of stroked arcs. */
+    private static final double ARC_SHRINK = 0.1875;
+
+    private final int[] data;
+    private final int width;
+    /** Row stored first in data, for images holding a strip of a larger drawing. */
+    private final int origin;
+    /** Rows that may be written, [top, bottom). */
+    private final int top;
+    private final int bottom;
+
+    private PixelRasterizer(int[] data, int width, int origin, int top, int bottom) {
+        this.data = data;
+        this.width = width;
+        this.origin = origin;
+        this.top = top;
+        this.bottom = bottom;
+    }
+
+    /**
+     * @return a rasterizer for the image, or null if its pixels are not packed in ints
+     */
+    static PixelRasterizer of(BufferedImage image) {
+        return of(image, 0);
+    }
+
+    /**
+     * @return a rasterizer for the image holding the rows [origin, origin + height) of
+     * the drawing, or null if its pixels are not packed in ints
+     */
+    static PixelRasterizer of(BufferedImage image, int origin) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB) {
+            return null;
+        }
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        return new PixelRasterizer(data, image.getWidth(), origin, origin, origin + image.getHeight());
+    }
+
+    /**
+     * @return a rasterizer of the same pixels that only writes the rows [top, bottom)
+     */
+    PixelRasterizer clip(int top, int bottom) {
+        return new PixelRasterizer(data, width, origin, Math.max(top, this.top), Math.min(bottom, this.bottom));
+    }
+
+    void rect(int x, int y, int w, int h, int argb) {
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, top);
+        int x1 = Math.min(x + w, width);
+        int y1 = Math.min(y + h, bottom);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        if (x0 == 0 && x1 == width) {
+            Arrays.fill(data, (y0 - origin) * width, (y1 - origin) * width, argb);
+            return;
+        }
+        for (int row = y0; row < y1; row++) {
+            Arrays.fill(data, (row - origin) * width + x0, (row - origin) * width + x1, argb);
+        }
+    }
+
+    /**
+     * Fill the pixels of the row whose sample point lies in [left, right).
+     */
+    private void span(int row, double left, double right, int argb) {
+        int x0 = Math.max((int) Math.ceil(left - SAMPLE), 0);
+        int x1 = Math.min((int) Math.ceil(right - SAMPLE), width);
+        if (x0 < x1) {
+            Arrays.fill(data, (row - origin) * width + x0, (row - origin) * width + x1, argb);
+        }
+    }
+
+    void triangle(int x1, int y1, int x2, int y2, int x3, int y3, int argb) {
+        int top = Math.max((int) Math.ceil(Math.min(y1, Math.min(y2, y3)) - SAMPLE), this.top);
+        int bottom = Math.min((int) Math.ceil(Math.max(y1, Math.max(y2, y3)) - SAMPLE), this.bottom);
+
+        for (int row = top; row < bottom; row++) {
+            double sy = row + SAMPLE;
+            //Edges cover [min y, max y), so a vertex is counted once.
+            double a = crossing(x1, y1, x2, y2, sy);
+            double b = crossing(x2, y2, x3, y3, sy);
+            double c = crossing(x3, y3, x1, y1, sy);
+            if (Double.isNaN(a)) {
+                a = c;
+            } else if (Double.isNaN(b)) {
+                b = c;
+            }
+            if (!Double.isNaN(a) && !Double.isNaN(b)) {
+                span(row, Math.min(a, b), Math.max(a, b), argb);
+            }
+        }
+    }
+
+    private static double crossing(int xa, int ya, int xb, int yb, double sy) {
+        if (ya == yb) {
+            return Double.NaN;
+        }
+        int ylo = Math.min(ya, yb);
+        int yhi = Math.max(ya, yb);
+        if (sy < ylo || sy >= yhi) {
+            return Double.NaN;
+        }
+        return xa + (sy - ya) * (xb - xa) / (double) (yb - ya);
+    }
+
+    void ellipse(int x, int y, int w, int h, int argb) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        double cx = x + w / 2.0;
+        double cy = y + h / 2.0;
+        double rx = w / 2.0 - ELLIPSE_SHRINK;
+        double ry = h / 2.0 - ELLIPSE_SHRINK;
+        int top = Math.max(y, this.top);
+        int bottom = Math.min(y + h, this.bottom);
+
+        //Ellipses are filled from the pixel corners, strictly inside the curve.
+        for (int row = top; row < bottom; row++) {
+            double dy = (row - cy) / ry;
+            if (dy * dy < 1) {
+                double half = rx * Math.sqrt(1 - dy * dy);
+                int x0 = Math.max((int) Math.floor(cx - half) + 1, 0);
+                int x1 = Math.min((int) Math.ceil(cx + half), width);
+                if (x0 < x1) {
+                    Arrays.fill(data, (row - origin) * width + x0, (row - origin) * width + x1, argb);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stroke an elliptical arc with square caps, as Graphics.drawArc does with a
+     * {@code BasicStroke} of the given width. Angles are in degrees, counterclockwise
+     * from 3 o'clock, relative to the bounds as in {@link java.awt.geom.Arc2D}.
+     */
+    void arc(int x, int y, int w, int h, int start, int extent, int thick, int argb) {
+        if (w < 0 || h < 0 || extent == 0) {
+            return;
+        }
+        double rx = w / 2.0;
+        double ry = h / 2.0;
+        double cx = x + rx;
+        double cy = y + ry;
+        double half = Math.max(thick, 1) / 2.0;
+
+        if (extent < 0) {
+            start += extent;
+            extent = -extent;
+        }
+        extent = Math.min(extent, 360);
+        double a0 = Math.toRadians(start);
+        double a1 = Math.toRadians(start + extent);
+        //Unit vectors of the ends, y pointing up as in the angle convention.
+        double sx = Math.cos(a0), sy = Math.sin(a0);
+        double ex = Math.cos(a1), ey = Math.sin(a1);
+
+        //End points and outward tangents in device space, for the caps.
+        double p0x = cx + rx * sx, p0y = cy - ry * sy;
+        double p1x = cx + rx * ex, p1y = cy - ry * ey;
+        double t0x = rx * sy, t0y = ry * sx;
+        double t1x = -rx * ey, t1y = -ry * ex;
+        double t0 = Math.hypot(t0x, t0y), t1 = Math.hypot(t1x, t1y);
+        if (t0 > 0) {
+            t0x /= t0;
+            t0y /= t0;
+        }
+        if (t1 > 0) {
+            t1x /= t1;
+            t1y /= t1;
+        }
+
+        //Bounds of the center line: the end points, plus the extreme points of the
+        //ellipse the arc goes through. Caps reach at most half * sqrt(2) further.
+        double minx = Math.min(p0x, p1x), maxx = Math.max(p0x, p1x);
+        double miny = Math.min(p0y, p1y), maxy = Math.max(p0y, p1y);
+        for (int a = Math.floorDiv(start, 90) * 90 + 90; a < start + extent; a += 90) {
+            switch (Math.floorMod(a, 360)) {
+                case 0: maxx = cx + rx; break;
+                case 90: miny = cy - ry; break;
+                case 180: minx = cx - rx; break;
+                default: maxy = cy + ry; break;
+            }
+        }
+        double reach = half * 1.5 + 1;
+        int left = Math.max((int) Math.floor(minx - reach), 0);
+        int right = Math.min((int) Math.ceil(maxx + reach), width);
+        int top = Math.max((int) Math.floor(miny - reach), this.top);
+        int bottom = Math.min((int) Math.ceil(maxy + reach), this.bottom);
+
+        double radius = rx - ARC_SHRINK;
+        double inner = Math.max(radius - half, 0), outer = radius + half;
+        double nx = 1 / Math.max(rx, 1e-9), ny = 1 / Math.max(ry, 1e-9);
+
+        if (rx == ry) {
+            //Circles: only the pixels between the inner and outer circles of each row are
+            //tested against the sector, the caps are filled on their own.
+            for (int row = top; row < bottom; row++) {
+                double dy = cy - (row + SAMPLE);
+                double dy2 = dy * dy;
+                if (dy2 >= outer * outer) {
+                    continue;
+                }
+                double ho = Math.sqrt(outer * outer - dy2);
+                double hi = dy2 < inner * inner ? Math.sqrt(inner * inner - dy2) : -1;
+                int l0 = Math.max((int) Math.floor(cx - ho - SAMPLE) + 1, left);
+                int r1 = Math.min((int) Math.ceil(cx + ho - SAMPLE), right);
+                if (hi < 0) {
+                    ring(row, l0, r1, cx, dy * ny, nx, sx, sy, ex, ey, extent, argb);
+                } else {
+                    ring(row, l0, Math.min((int) Math.ceil(cx - hi - SAMPLE), right), cx, dy * ny, nx, sx, sy, ex, ey, extent, argb);
+                    ring(row, Math.max((int) Math.floor(cx + hi - SAMPLE) + 1, left), r1, cx, dy * ny, nx, sx, sy, ex, ey, extent, argb);
+                }
+            }
+            cap(p0x, p0y, t0x, t0y, half, cx, cy, nx, ny, sx, sy, ex, ey, extent, argb);
+            cap(p1x, p1y, t1x, t1y, half, cx, cy, nx, ny, sx, sy, ex, ey, extent, argb);
+            return;
+        }
+
+        for (int row = top; row < bottom; row++) {
+            double py = row + SAMPLE;
+            int offset = (row - origin) * width;
+            for (int col = left; col < right; col++) {
+                double px = col + SAMPLE;
+                double u = (px - cx) * nx, v = (cy - py) * ny;
+
+                boolean hit;
+                if (inSector(u, v, sx, sy, ex, ey, extent)) {
+                    double r = Math.sqrt(u * u + v * v);
+                    double along = r > 0 ? Math.hypot(u * rx, v * ry) / r : Math.min(rx, ry);
+                    hit = Math.abs(r * along - along + ARC_SHRINK) < half;
+                } else {
+                    hit = inCap(px, py, p0x, p0y, t0x, t0y, half) || inCap(px, py, p1x, p1y, t1x, t1y, half);
+                }
+                if (hit) {
+                    data[offset + col] = argb;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fill the pixels of the row in [from, to) that fall within the sector of the arc.
+     */
+    private void ring(int row, int from, int to, double cx, double v, double nx,
+                      double sx, double sy, double ex, double ey, int extent, int argb) {
+        int offset = (row - origin) * width;
+        for (int col = from; col < to; col++) {
+            if (inSector((col + SAMPLE - cx) * nx, v, sx, sy, ex, ey, extent)) {
+                data[offset + col] = argb;
+            }
+        }
+    }
+
+    /**
+     * Fill the square cap at the end point o, outside of the sector of the arc.
+     */
+    private void cap(double ox, double oy, double tx, double ty, double half, double cx, double cy, double nx, double ny,
+                     double sx, double sy, double ex, double ey, int extent, int argb) {
+        double reach = half * 1.5 + 1;
+        int left = Math.max((int) Math.floor(ox - reach), 0);
+        int right = Math.min((int) Math.ceil(ox + reach), width);
+        int top = Math.max((int) Math.floor(oy - reach), this.top);
+        int bottom = Math.min((int) Math.ceil(oy + reach), this.bottom);
+        for (int row = top; row < bottom; row++) {
+            double py = row + SAMPLE;
+            for (int col = left; col < right; col++) {
+                double px = col + SAMPLE;
+                if (inCap(px, py, ox, oy, tx, ty, half) && !inSector((px - cx) * nx, (cy - py) * ny, sx, sy, ex, ey, extent)) {
+                    data[(row - origin) * width + col] = argb;
+                }
+            }
+        }
+    }
+
+    private static boolean inSector(double u, double v, double sx, double sy, double ex, double ey, int extent) {
+        if (extent >= 360) {
+            return true;
+        }
+        boolean afterStart = sx * v - sy * u >= 0;
+        boolean beforeEnd = u * ey - v * ex >= 0;
+        return extent <= 180 ? afterStart && beforeEnd : afterStart || beforeEnd;
+    }
+
+    /**
+     * Square cap: the half-width square beyond the end point, along the outward tangent.
+     */
+    private static boolean inCap(double px, double py, double ox, double oy, double tx, double ty, double half) {
+        double along = (px - ox) * tx + (py - oy) * ty;
+        double across = -(px - ox) * ty + (py - oy) * tx;
+        return along >= 0 && along <= half && Math.abs(across) <= half;
+    }
+}
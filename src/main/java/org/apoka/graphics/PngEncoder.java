@@ -0,0 +1,780 @@
+package org.apoka.graphics;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder for covers. A cover only has a handful of flat colors plus the shades of
+ * antialiased text, so the encoder counts the colors first and picks the smallest
+ * lossless format: indexed color with 1, 2, 4 or 8 bits per pixel when there are at
+ * most 256 of them, RGB when every pixel is opaque, RGBA otherwise. The output decodes
+ * to exactly the ARGB values of the image.
+ *
+ * In parallel mode, large images are deflated in independent chunks of rows on the
+ * common fork-join pool, the way pigz does: each chunk is primed with the last 32 KB
+ * of the previous one and ends on a byte boundary with a sync flush, so the compressed
+ * chunks concatenate into a single zlib stream. The output only depends on the level
+ * and on the mode, not on the number of threads.
+ *
+ * Images too large to hold in memory can be written row by row with a {@link RowWriter}.
+ * The colors cannot be counted before the last row, so those are always written as RGB.
+ */
+public final class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_INDEXED = 3;
+    private static final int COLOR_RGBA = 6;
+    private static final int MAX_PALETTE = 256;
+    private static final int DICTIONARY = 32 * 1024;
+    private static final int PARALLEL_CHUNK = 256 * 1024;
+    private static final int IDAT_SIZE = 64 * 1024;
+
+    private int level = 6;
+    private boolean parallel;
+
+    public PngEncoder() {
+    }
+
+    /**
+     * @param level the deflate level, from 0 (store) to 9 (best compression)
+     */
+    public PngEncoder(int level, boolean parallel) {
+        setLevel(level);
+        setParallel(parallel);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("The deflate level must be between 0 and 9");
+        }
+        this.level = level;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Encode the image to the stream. The stream is left open.
+     */
+    public void write(Image image, OutputStream out) throws IOException {
+        encode(image.pixels(), image.getWidth(), image.getHeight(), image.isOpaque(), out);
+        out.flush();
+    }
+
+    public void write(Image image, Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+            write(image, out);
+        }
+    }
+
+    /**
+     * Encode the image into the buffer, from its position.
+     * @throws BufferOverflowException if the encoded image does not fit
+     */
+    public void write(Image image, ByteBuffer buffer) throws IOException {
+        encode(image.pixels(), image.getWidth(), image.getHeight(), image.isOpaque(), new OutputStream() {
+            @Override
+            public void write(int b) {
+                buffer.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                buffer.put(b, off, len);
+            }
+        });
+    }
+
+    /**
+     * @return the encoded image, in a buffer ready to be read
+     */
+    public ByteBuffer encode(Image image) throws IOException {
+        return ByteBuffer.wrap(toBytes(image));
+    }
+
+    public byte[] toBytes(Image image) throws IOException {
+        Output out = new Output(16 * 1024);
+        encode(image.pixels(), image.getWidth(), image.getHeight(), image.isOpaque(), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode ARGB pixels stored row by row, without padding.
+     * @param opaque true to ignore the alpha byte of the pixels, as for RGB images
+     */
+    void encode(int[] argb, int width, int height, boolean opaque, OutputStream out) throws IOException {
+        RenderProbe probe = RenderProbe.start("encode", width, height);
+        if (probe == null) {
+            encodePng(argb, width, height, opaque, out);
+            return;
+        }
+        Counter counter = new Counter(out);
+        encodePng(argb, width, height, opaque, counter);
+        probe.end(0, 0, counter.count);
+    }
+
+    private void encodePng(int[] argb, int width, int height, boolean opaque, OutputStream out) throws IOException {
+        Format format = Format.of(argb, width * height, opaque ? 0xff000000 : 0);
+        int stride = format.rowBytes(width);
+
+        out.write(SIGNATURE);
+        Chunk header = new Chunk("IHDR", 13);
+        header.putInt(width);
+        header.putInt(height);
+        header.put(format.bitDepth);
+        header.put(format.colorType);
+        header.put(0); //deflate
+        header.put(0); //adaptive filtering
+        header.put(0); //no interlace
+        header.writeTo(out);
+
+        if (format.palette != null) {
+            Chunk palette = new Chunk("PLTE", format.palette.length * 3);
+            boolean alpha = false;
+            for (int color : format.palette) {
+                palette.put(color >> 16);
+                palette.put(color >> 8);
+                palette.put(color);
+                alpha |= (color >>> 24) != 0xff;
+            }
+            palette.writeTo(out);
+
+            if (alpha) {
+                //Only entries up to the last translucent one need an alpha value.
+                int last = 0;
+                for (int i = 0; i < format.palette.length; i++) {
+                    if ((format.palette[i] >>> 24) != 0xff) {
+                        last = i;
+                    }
+                }
+                Chunk transparency = new Chunk("tRNS", last + 1);
+                for (int i = 0; i <= last; i++) {
+                    transparency.put(format.palette[i] >>> 24);
+                }
+                transparency.writeTo(out);
+            }
+        }
+
+        byte[] raw = new byte[(stride + 1) * height];
+        if (parallel && raw.length >= 2 * PARALLEL_CHUNK) {
+            writeParallel(format, argb, width, height, stride, raw, out);
+        } else {
+            format.filter(argb, width, 0, height, stride, raw);
+            writeSerial(raw, out);
+        }
+
+        new Chunk("IEND", 0).writeTo(out);
+    }
+
+    /**
+     * Start a PNG of the given size on the stream, whose rows are then written from top to
+     * bottom, see {@link RowWriter}. The stream is left open.
+     */
+    public RowWriter rows(int width, int height, OutputStream out) throws IOException {
+        return new RowWriter(width, height, out);
+    }
+
+    private void writeSerial(byte[] raw, OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[IDAT_SIZE];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                if (n > 0) {
+                    writeChunk(out, "IDAT", buffer, 0, n);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeParallel(Format format, int[] argb, int width, int height, int stride,
+                               byte[] raw, OutputStream out) throws IOException {
+        int rows = Math.max(1, PARALLEL_CHUNK / (stride + 1));
+        int chunks = (height + rows - 1) / rows;
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        //Filter first: a chunk needs the raw bytes of the previous one as dictionary.
+        List<Callable<Void>> filters = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int first = i * rows;
+            int last = Math.min(height, first + rows);
+            filters.add(() -> {
+                format.filter(argb, width, first, last, stride, raw);
+                return null;
+            });
+        }
+        join(pool.invokeAll(filters));
+
+        List<Callable<byte[]>> deflates = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int from = i * rows * (stride + 1);
+            int to = Math.min(raw.length, (i + 1) * rows * (stride + 1));
+            boolean last = i == chunks - 1;
+            deflates.add(() -> deflateChunk(raw, from, to, last));
+        }
+        List<Future<byte[]>> compressed = pool.invokeAll(deflates);
+
+        //zlib header, then the raw deflate chunks, then the checksum of the whole data.
+        Adler32 adler = new Adler32();
+        adler.update(raw);
+        int check = (int) adler.getValue();
+        byte[] header = {0x78, (byte) (level >= 7 ? 0xda : level == 6 ? 0x9c : level >= 2 ? 0x5e : 0x01)};
+        writeChunk(out, "IDAT", header, 0, header.length);
+        for (Future<byte[]> chunk : compressed) {
+            byte[] data = get(chunk);
+            for (int off = 0; off < data.length; off += IDAT_SIZE) {
+                writeChunk(out, "IDAT", data, off, Math.min(IDAT_SIZE, data.length - off));
+            }
+        }
+        byte[] trailer = {(byte) (check >>> 24), (byte) (check >>> 16), (byte) (check >>> 8), (byte) check};
+        writeChunk(out, "IDAT", trailer, 0, trailer.length);
+    }
+
+    private byte[] deflateChunk(byte[] raw, int from, int to, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (from > 0) {
+                int start = Math.max(0, from - DICTIONARY);
+                deflater.setDictionary(raw, start, from - start);
+            }
+            deflater.setInput(raw, from, to - from);
+            if (last) {
+                deflater.finish();
+            }
+            Output out = new Output((to - from) / 4 + 64);
+            byte[] buffer = new byte[IDAT_SIZE];
+            while (true) {
+                int n = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, n);
+                if (last ? deflater.finished() : n < buffer.length && deflater.needsInput()) {
+                    return out.toByteArray();
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void join(List<Future<Void>> futures) throws IOException {
+        for (Future<Void> future : futures) {
+            get(future);
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Counts the bytes written through it, for {@link RenderProbe}.
+     */
+    private static final class Counter extends FilterOutputStream {
+        long count;
+
+        Counter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Writes an opaque RGB PNG from rows handed over in order, filtering and deflating them
+     * as they come: only a few rows and the deflate window are held at any time.
+     * <pre>
+     *     try (PngEncoder.RowWriter writer = encoder.rows(width, height, out)) {
+     *         writer.write(strip, rows);
+     *         ...
+     *     }
+     * </pre>
+     * Closing it ends the PNG, once every row has been written.
+     */
+    public final class RowWriter implements Closeable {
+        private final int width;
+        private final int height;
+        private final int stride;
+        private final OutputStream out;
+        private final RenderProbe probe;
+        private final Deflater deflater = new Deflater(level);
+        private final byte[] buffer = new byte[IDAT_SIZE];
+        private final byte[] filtered;
+        private byte[] previous;
+        private byte[] current;
+        private final byte[] candidate;
+        private int pending;
+        private int row;
+        private boolean closed;
+
+        private RowWriter(int width, int height, OutputStream out) throws IOException {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Invalid PNG size " + width + "x" + height);
+            }
+            this.width = width;
+            this.height = height;
+            this.stride = width * 3;
+            this.probe = RenderProbe.start("encode", width, height);
+            this.out = probe != null ? new Counter(out) : out;
+            filtered = new byte[stride + 1];
+            previous = new byte[stride];
+            current = new byte[stride];
+            candidate = new byte[stride];
+
+            this.out.write(SIGNATURE);
+            Chunk header = new Chunk("IHDR", 13);
+            header.putInt(width);
+            header.putInt(height);
+            header.put(8);
+            header.put(COLOR_RGB);
+            header.put(0); //deflate
+            header.put(0); //adaptive filtering
+            header.put(0); //no interlace
+            header.writeTo(this.out);
+        }
+
+        /**
+         * Append the first rows of the image, which must be as wide as the PNG and store
+         * its pixels in ints. Alpha is ignored.
+         */
+        public void write(Image image, int rows) throws IOException {
+            write(image, 0, rows);
+        }
+
+        /**
+         * Append the rows [first, first + rows) of the image.
+         */
+        public void write(Image image, int first, int rows) throws IOException {
+            int[] argb = image.pixels();
+            if (argb == null || image.getWidth() != width) {
+                throw new IllegalArgumentException("Rows must come from an int image " + width + " pixels wide");
+            }
+            if (first < 0 || rows < 0 || first + rows > image.getHeight() || row + rows > height) {
+                throw new IllegalArgumentException("Invalid row count " + rows);
+            }
+            for (int i = 0; i < rows; i++) {
+                Format.unpack(argb, (first + i) * width, width, 3, current);
+                int best = Format.chooseFilter(current, previous, candidate, 3, stride);
+                filtered[0] = (byte) best;
+                Format.applyFilter(best, current, previous, filtered, 1, 3, stride);
+                deflate(filtered);
+
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            row += rows;
+        }
+
+        private void deflate(byte[] raw) throws IOException {
+            deflater.setInput(raw);
+            while (!deflater.needsInput()) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            pending += deflater.deflate(buffer, pending, buffer.length - pending);
+            if (pending == buffer.length) {
+                writeChunk(out, "IDAT", buffer, 0, pending);
+                pending = 0;
+            }
+        }
+
+        /**
+         * End the PNG. The stream is left open.
+         * @throws IllegalStateException if rows are missing
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (row != height) {
+                    throw new IllegalStateException("Only " + row + " of " + height + " rows were written");
+                }
+                deflater.finish();
+                while (!deflater.finished()) {
+                    drain();
+                }
+                if (pending > 0) {
+                    writeChunk(out, "IDAT", buffer, 0, pending);
+                }
+                new Chunk("IEND", 0).writeTo(out);
+                out.flush();
+                if (probe != null) {
+                    probe.end(0, 0, ((Counter) out).count);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int off, int len) throws IOException {
+        Chunk chunk = new Chunk(type, 0);
+        chunk.writeTo(out, data, off, len);
+    }
+
+    /**
+     * The pixel format picked for an image, and the palette if it is indexed.
+     */
+    private static final class Format {
+        final int colorType;
+        final int bitDepth;
+        final int[] palette;
+        final ColorIndex index;
+        /** Or-ed to every pixel, 0xff000000 when the alpha byte is to be ignored. */
+        final int alpha;
+
+        private Format(int colorType, int bitDepth, int[] palette, ColorIndex index, int alpha) {
+            this.colorType = colorType;
+            this.bitDepth = bitDepth;
+            this.palette = palette;
+            this.index = index;
+            this.alpha = alpha;
+        }
+
+        static Format of(int[] argb, int count, int alpha) {
+            ColorIndex index = new ColorIndex();
+            boolean opaque = true;
+            int previous = 0;
+            boolean indexed = true;
+            for (int i = 0; i < count; i++) {
+                int color = argb[i] | alpha;
+                if (i > 0 && color == previous) {
+                    continue;
+                }
+                previous = color;
+                opaque &= (color >>> 24) == 0xff;
+                if (indexed && index.add(color) > MAX_PALETTE) {
+                    indexed = false;
+                    if (!opaque) {
+                        break;
+                    }
+                }
+            }
+
+            if (indexed) {
+                int colors = index.size();
+                int depth = colors <= 2 ? 1 : colors <= 4 ? 2 : colors <= 16 ? 4 : 8;
+                return new Format(COLOR_INDEXED, depth, index.colors(), index, alpha);
+            }
+            return new Format(opaque ? COLOR_RGB : COLOR_RGBA, 8, null, null, alpha);
+        }
+
+        int rowBytes(int width) {
+            switch (colorType) {
+                case COLOR_INDEXED:
+                    return (width * bitDepth + 7) / 8;
+                case COLOR_RGB:
+                    return width * 3;
+                default:
+                    return width * 4;
+            }
+        }
+
+        /**
+         * Write the filtered rows [first, last) to raw, each preceded by its filter type.
+         */
+        void filter(int[] argb, int width, int first, int last, int stride, byte[] raw) {
+            if (palette != null) {
+                //Indexed rows are not filtered, as advised by the specification.
+                for (int row = first; row < last; row++) {
+                    int offset = row * (stride + 1);
+                    raw[offset] = 0;
+                    pack(argb, row * width, width, raw, offset + 1);
+                }
+                return;
+            }
+
+            int bpp = colorType == COLOR_RGB ? 3 : 4;
+            byte[] previous = new byte[stride];
+            byte[] current = new byte[stride];
+            byte[] candidate = new byte[stride];
+            if (first > 0) {
+                unpack(argb, (first - 1) * width, width, bpp, previous);
+            }
+            for (int row = first; row < last; row++) {
+                unpack(argb, row * width, width, bpp, current);
+                int offset = row * (stride + 1);
+                int best = chooseFilter(current, previous, candidate, bpp, stride);
+                raw[offset] = (byte) best;
+                applyFilter(best, current, previous, raw, offset + 1, bpp, stride);
+
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+        }
+
+        private void pack(int[] argb, int start, int width, byte[] raw, int offset) {
+            int perByte = 8 / bitDepth;
+            int color = argb[start];
+            int value = index.get(color | alpha);
+            for (int x = 0; x < width; x++) {
+                if (argb[start + x] != color) {
+                    color = argb[start + x];
+                    value = index.get(color | alpha);
+                }
+                int shift = 8 - bitDepth * (x % perByte + 1);
+                raw[offset + x / perByte] |= (byte) (value << shift);
+            }
+        }
+
+        private static void unpack(int[] argb, int start, int width, int bpp, byte[] row) {
+            int j = 0;
+            for (int x = 0; x < width; x++) {
+                int color = argb[start + x];
+                row[j++] = (byte) (color >> 16);
+                row[j++] = (byte) (color >> 8);
+                row[j++] = (byte) color;
+                if (bpp == 4) {
+                    row[j++] = (byte) (color >>> 24);
+                }
+            }
+        }
+
+        /**
+         * Pick the filter minimizing the sum of absolute values of the filtered bytes,
+         * the heuristic recommended by the specification.
+         */
+        private static int chooseFilter(byte[] current, byte[] previous, byte[] scratch, int bpp, int stride) {
+            int best = 0;
+            long bestSum = Long.MAX_VALUE;
+            for (int type = 0; type < 5; type++) {
+                applyFilter(type, current, previous, scratch, 0, bpp, stride);
+                long sum = 0;
+                for (int i = 0; i < stride && sum < bestSum; i++) {
+                    sum += Math.abs((int) scratch[i]);
+                }
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    best = type;
+                }
+            }
+            return best;
+        }
+
+        private static void applyFilter(int type, byte[] current, byte[] previous, byte[] out, int offset, int bpp, int stride) {
+            switch (type) {
+                case 0:
+                    System.arraycopy(current, 0, out, offset, stride);
+                    break;
+                case 1:
+                    for (int i = 0; i < stride; i++) {
+                        int left = i >= bpp ? current[i - bpp] : 0;
+                        out[offset + i] = (byte) (current[i] - left);
+                    }
+                    break;
+                case 2:
+                    for (int i = 0; i < stride; i++) {
+                        out[offset + i] = (byte) (current[i] - previous[i]);
+                    }
+                    break;
+                case 3:
+                    for (int i = 0; i < stride; i++) {
+                        int left = i >= bpp ? current[i - bpp] & 0xff : 0;
+                        out[offset + i] = (byte) (current[i] - ((left + (previous[i] & 0xff)) >> 1));
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < stride; i++) {
+                        int a = i >= bpp ? current[i - bpp] & 0xff : 0;
+                        int b = previous[i] & 0xff;
+                        int c = i >= bpp ? previous[i - bpp] & 0xff : 0;
+                        out[offset + i] = (byte) (current[i] - paeth(a, b, c));
+                    }
+                    break;
+            }
+        }
+
+        private static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc) {
+                return a;
+            }
+            return pb <= pc ? b : c;
+        }
+    }
+
+    /**
+     * Open addressing map from colors to their index in the palette, in order of
+     * first appearance.
+     */
+    private static final class ColorIndex {
+        private static final int SLOTS = 1024;
+        private final int[] keys = new int[SLOTS];
+        private final int[] values = new int[SLOTS];
+        private final int[] colors = new int[MAX_PALETTE + 1];
+        private int size;
+
+        /**
+         * @return the number of colors after adding this one
+         */
+        int add(int color) {
+            int slot = slot(color);
+            if (values[slot] == 0) {
+                keys[slot] = color;
+                values[slot] = size + 1;
+                if (size < colors.length) {
+                    colors[size] = color;
+                }
+                size++;
+            }
+            return size;
+        }
+
+        /**
+         * @return the palette index of a color added before; safe for concurrent readers
+         */
+        int get(int color) {
+            return values[slot(color)] - 1;
+        }
+
+        private int slot(int color) {
+            int slot = (color * 0x9e3779b9 >>> 22) & (SLOTS - 1);
+            while (values[slot] != 0 && keys[slot] != color) {
+                slot = (slot + 1) & (SLOTS - 1);
+            }
+            return slot;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] colors() {
+            return Arrays.copyOf(colors, size);
+        }
+    }
+
+    /**
+     * A PNG chunk: length, type, data and the CRC of type and data.
+     */
+    private static final class Chunk {
+        private final byte[] type;
+        private final byte[] data;
+        private int length;
+
+        Chunk(String type, int capacity) {
+            this.type = type.getBytes(StandardCharsets.US_ASCII);
+            this.data = new byte[capacity];
+        }
+
+        void put(int b) {
+            data[length++] = (byte) b;
+        }
+
+        void putInt(int value) {
+            put(value >>> 24);
+            put(value >>> 16);
+            put(value >>> 8);
+            put(value);
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            writeTo(out, data, 0, length);
+        }
+
+        void writeTo(OutputStream out, byte[] bytes, int off, int len) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(bytes, off, len);
+            int check = (int) crc.getValue();
+            byte[] head = {(byte) (len >>> 24), (byte) (len >>> 16), (byte) (len >>> 8), (byte) len, type[0], type[1], type[2], type[3]};
+            out.write(head);
+            out.write(bytes, off, len);
+            out.write(new byte[]{(byte) (check >>> 24), (byte) (check >>> 16), (byte) (check >>> 8), (byte) check});
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream without synchronization, handing its buffer out when full.
+     */
+    private static final class Output extends OutputStream {
+        private byte[] buffer;
+        private int count;
+
+        Output(int capacity) {
+            buffer = new byte[Math.max(capacity, 64)];
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        private void ensure(int extra) {
+            if (count + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+        }
+    }
+}
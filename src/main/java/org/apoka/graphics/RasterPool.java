@@ -0,0 +1,309 @@
+package org.apoka.graphics;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Pool of images lent by size, pixel format, backend and quality, so that renders in a loop
+ * reuse the same few rasters instead of allocating new ones.
+ * <pre>
+ *     Image image = pool.acquire(400, 600, Image.PixelFormat.RGB, Image.Backend.JAVA2D);
+ *     try {
+ *         ...
+ *     } finally {
+ *         pool.release(image);
+ *     }
+ * </pre>
+ * The pixels of the images it owns, lent or idle, add up to at most the memory cap. When
+ * a new image would exceed it, idle images of other shapes are dropped first. If that is
+ * not enough, {@link #acquire} either waits for an image to be released or allocates an
+ * image outside of the pool, which is then simply left to the garbage collector. It can
+ * be shared between threads.
+ *
+ * The pool tracks the images it lends: one never released is taken off the cap once the
+ * garbage collector has reclaimed it, and a blocked {@link #acquire} gives up with an
+ * exception after the maximum wait rather than waiting forever for images that were lost.
+ */
+public class RasterPool {
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30_000;
+    /** Leaked images are looked for this often while waiting. */
+    private static final long WAIT_SLICE_MILLIS = 100;
+
+    private final long maxBytes;
+    private final boolean block;
+    private final long maxWaitMillis;
+    private final Map<Key, ArrayDeque<Image>> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Loan> lent = new HashSet<>();
+    private final ReferenceQueue<Image> leaked = new ReferenceQueue<>();
+    private long bytes;
+    private long allocations;
+    private long reuses;
+    private long fallbacks;
+    private long leaks;
+
+    public RasterPool() {
+        this(DEFAULT_MAX_BYTES, false);
+    }
+
+    /**
+     * @param maxBytes the memory cap of the images of the pool
+     * @param block true to wait for an image to be released when the cap is reached,
+     * false to allocate an image outside of the pool
+     */
+    public RasterPool(long maxBytes, boolean block) {
+        this(maxBytes, block, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * @param maxWaitMillis how long {@link #acquire} waits for an image to be released
+     * when it blocks
+     */
+    public RasterPool(long maxBytes, boolean block, long maxWaitMillis) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The pool size must be positive");
+        }
+        if (maxWaitMillis <= 0) {
+            throw new IllegalArgumentException("The maximum wait must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.block = block;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @return an image with every pixel reset to 0, to give back with {@link #release}.
+     * If the thread is interrupted while waiting, the image is allocated outside of the
+     * pool and the interrupt status is kept.
+     * @throws IllegalStateException if the pool blocks and no image was released within
+     * the maximum wait
+     */
+    public Image acquire(int width, int height, Image.PixelFormat format, Image.Backend backend) {
+        return acquire(width, height, format, backend, RenderQuality.STANDARD);
+    }
+
+    /**
+     * @return an image drawn into with the given quality, see {@link #acquire(int, int, Image.PixelFormat, Image.Backend)}
+     */
+    public Image acquire(int width, int height, Image.PixelFormat format, Image.Backend backend, RenderQuality quality) {
+        if (quality == RenderQuality.HIGH) {
+            //Pooled under the backend the image reports.
+            backend = Image.Backend.JAVA2D;
+        }
+        Key key = new Key(width, height, format, backend, quality);
+        long size = (long) width * height * format.getBytesPerPixel();
+        Image image;
+        synchronized (this) {
+            image = take(key, size);
+        }
+        return image != null ? image : new Image(width, height, backend, format, quality);
+    }
+
+    /**
+     * @return an idle image, a new pooled image, or null to allocate outside of the pool
+     */
+    private Image take(Key key, long size) {
+        long deadline = 0;
+        while (true) {
+            reclaim();
+            ArrayDeque<Image> images = idle.get(key);
+            if (images != null && !images.isEmpty()) {
+                reuses++;
+                return lend(images.pop(), key);
+            }
+            if (size > maxBytes) {
+                fallbacks++;
+                return null;
+            }
+            evict(maxBytes - size);
+            if (bytes + size <= maxBytes) {
+                bytes += size;
+                allocations++;
+                return lend(new Image(key.width, key.height, key.backend, key.format, key.quality), key);
+            }
+            if (!block) {
+                fallbacks++;
+                return null;
+            }
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + maxWaitMillis * 1_000_000;
+            } else if (now - deadline >= 0) {
+                throw new IllegalStateException(String.format(
+                        "No raster released within %d ms: %d rasters of %d bytes are lent, are they all released?",
+                        maxWaitMillis, lent.size(), bytes));
+            }
+            try {
+                wait(Math.min(WAIT_SLICE_MILLIS, Math.max(1, (deadline - now) / 1_000_000)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fallbacks++;
+                return null;
+            }
+        }
+    }
+
+    private Image lend(Image image, Key key) {
+        Loan loan = new Loan(image, this, key, leaked);
+        lent.add(loan);
+        image.loan = loan;
+        return image;
+    }
+
+    /**
+     * Take the images lent and never released back off the cap, once they are garbage.
+     */
+    private void reclaim() {
+        Loan loan;
+        while ((loan = (Loan) leaked.poll()) != null) {
+            if (lent.remove(loan)) {
+                bytes -= loan.key.bytes();
+                leaks++;
+            }
+        }
+    }
+
+    /**
+     * Drop the least recently used idle images until the pool holds at most target bytes.
+     */
+    private void evict(long target) {
+        Iterator<Map.Entry<Key, ArrayDeque<Image>>> it = idle.entrySet().iterator();
+        while (bytes > target && it.hasNext()) {
+            Map.Entry<Key, ArrayDeque<Image>> entry = it.next();
+            ArrayDeque<Image> images = entry.getValue();
+            while (bytes > target && !images.isEmpty()) {
+                images.pop();
+                bytes -= entry.getKey().bytes();
+            }
+            if (images.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Give back an image lent by {@link #acquire}. Images allocated outside of the pool,
+     * or released twice, are ignored.
+     */
+    public void release(Image image) {
+        if (image == null) {
+            return;
+        }
+        Loan loan;
+        synchronized (this) {
+            loan = image.loan;
+            if (loan == null || loan.pool != this || !lent.remove(loan)) {
+                return;
+            }
+            image.loan = null;
+            loan.clear();
+        }
+        //Cleared now so that acquire hands it out at once.
+        image.clear();
+        synchronized (this) {
+            //Pooled under the key it was lent with, whatever the image reports.
+            idle.computeIfAbsent(loan.key, k -> new ArrayDeque<>()).push(image);
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of images lent and not released yet
+     */
+    public synchronized int getLent() {
+        reclaim();
+        return lent.size();
+    }
+
+    /**
+     * @return the number of images lent, never released and reclaimed by the garbage
+     * collector
+     */
+    public synchronized long getLeaks() {
+        reclaim();
+        return leaks;
+    }
+
+    public synchronized long getBytes() {
+        reclaim();
+        return bytes;
+    }
+
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+
+    public synchronized long getReuses() {
+        return reuses;
+    }
+
+    public synchronized long getFallbacks() {
+        return fallbacks;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rasters: %d allocated, %d reused, %d outside of the pool, %d leaked, %d bytes",
+                getAllocations(), getReuses(), getFallbacks(), getLeaks(), getBytes());
+    }
+
+    /**
+     * An image lent by a pool, with the key it goes back under. The pool holds the loan
+     * but not the image, so a loan whose image became garbage shows up in its queue.
+     */
+    static final class Loan extends WeakReference<Image> {
+        private final RasterPool pool;
+        private final Key key;
+
+        Loan(Image image, RasterPool pool, Key key, ReferenceQueue<Image> queue) {
+            super(image, queue);
+            this.pool = pool;
+            this.key = key;
+        }
+    }
+
+    private static final class Key {
+        private final int width;
+        private final int height;
+        private final Image.PixelFormat format;
+        private final Image.Backend backend;
+        private final RenderQuality quality;
+
+        Key(int width, int height, Image.PixelFormat format, Image.Backend backend, RenderQuality quality) {
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.backend = backend;
+            this.quality = quality;
+        }
+
+        long bytes() {
+            return (long) width * height * format.getBytesPerPixel();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return width == key.width && height == key.height && format == key.format && backend == key.backend
+                    && quality == key.quality;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(width, height, format, backend, quality);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.apoka.graphics;
+
+/**
+ * Listener for the time spent in each phase of drawing and encoding covers: color
+ * processing, background, artwork, text and PNG encoding. Installed globally with
+ * {@link RenderProbe#setMetrics}; implementations must be thread safe.
+ */
+public interface RenderMetrics {
+    /**
+     * Listener ignoring everything, installed by default. While it is installed and no
+     * flight recording is on, phases are not even timed.
+     */
+    RenderMetrics NONE = (phase, nanos) -> { };
+
+    void record(String phase, long nanos);
+}
@@ -0,0 +1,38 @@
+package org.apoka.graphics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a phase of drawing or encoding a cover, see {@link RenderProbe}.
+ */
+@Name("org.apoka.RenderPhase")
+@Label("Render Phase")
+@Category("TenPrintCover")
+@Description("A phase of drawing or encoding a cover")
+@StackTrace(false)
+class RenderPhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Title Length")
+    int titleLength;
+
+    @Label("Grid Count")
+    int gridCount;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
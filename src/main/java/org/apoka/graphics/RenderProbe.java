@@ -0,0 +1,83 @@
+package org.apoka.graphics;
+
+import jdk.jfr.EventType;
+
+/**
+ * Times one phase of a render and reports it to the installed {@link RenderMetrics}
+ * and, when a flight recording asks for them, as {@code org.apoka.RenderPhase} events.
+ * <pre>
+ *     RenderProbe probe = RenderProbe.start("drawArtwork", width, height);
+ *     ...
+ *     if (probe != null) {
+ *         probe.end(title.length(), grid.count, 0);
+ *     }
+ * </pre>
+ * When nothing listens, {@link #start} returns null without reading the clock or
+ * allocating anything.
+ */
+public final class RenderProbe {
+    private static final EventType EVENT_TYPE = EventType.getEventType(RenderPhaseEvent.class);
+    private static volatile RenderMetrics metrics = RenderMetrics.NONE;
+
+    private final String phase;
+    private final int width;
+    private final int height;
+    private final RenderMetrics listener;
+    private final RenderPhaseEvent event;
+    private final long start;
+
+    private RenderProbe(String phase, int width, int height, RenderMetrics listener, RenderPhaseEvent event) {
+        this.phase = phase;
+        this.width = width;
+        this.height = height;
+        this.listener = listener;
+        this.event = event;
+        if (event != null) {
+            event.begin();
+        }
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Install the listener of every render in this JVM, null for none.
+     */
+    public static void setMetrics(RenderMetrics metrics) {
+        RenderProbe.metrics = metrics != null ? metrics : RenderMetrics.NONE;
+    }
+
+    public static RenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return a probe timing the phase from now, or null if nothing listens
+     */
+    public static RenderProbe start(String phase, int width, int height) {
+        RenderMetrics listener = metrics;
+        boolean recording = EVENT_TYPE.isEnabled();
+        if (listener == RenderMetrics.NONE && !recording) {
+            return null;
+        }
+        return new RenderProbe(phase, width, height, listener, recording ? new RenderPhaseEvent() : null);
+    }
+
+    /**
+     * End the phase. Fields that do not apply to the phase are 0.
+     */
+    public void end(int titleLength, int gridCount, long bytes) {
+        long nanos = System.nanoTime() - start;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase;
+                event.width = width;
+                event.height = height;
+                event.titleLength = titleLength;
+                event.gridCount = gridCount;
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+        listener.record(phase, nanos);
+    }
+}
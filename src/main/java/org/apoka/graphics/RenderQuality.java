@@ -0,0 +1,63 @@
+package org.apoka.graphics;
+
+import java.awt.*;
+
+/**
+ * Trade between the speed of a render and the smoothness of its edges. The layout does
+ * not change with the quality, only how the primitives are rasterized.
+ */
+public enum RenderQuality {
+    /**
+     * No antialiasing at all, text included, and the speed variant of every rendering
+     * hint. For previews.
+     */
+    DRAFT(RenderingHints.VALUE_TEXT_ANTIALIAS_OFF,
+            RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF,
+            RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED,
+            RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_SPEED,
+            RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED),
+    /**
+     * Antialiased text over aliased shapes, the pixels covers have always had.
+     */
+    STANDARD(RenderingHints.VALUE_TEXT_ANTIALIAS_ON),
+    /**
+     * Antialiased text and shapes, with pure strokes and the quality variant of every
+     * rendering hint. Shapes always go through Java2D, whatever the backend of the image.
+     */
+    HIGH(RenderingHints.VALUE_TEXT_ANTIALIAS_ON,
+            RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON,
+            RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY,
+            RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY,
+            RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY,
+            RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+
+    private final Object textAntialiasing;
+    /** Hint keys and values, alternating. */
+    private final Object[] hints;
+
+    RenderQuality(Object textAntialiasing, Object... hints) {
+        this.textAntialiasing = textAntialiasing;
+        this.hints = hints;
+    }
+
+    /**
+     * Set the hints of the quality, but for the text ones set when text is drawn.
+     */
+    void apply(Graphics2D g) {
+        for (int i = 0; i < hints.length; i += 2) {
+            g.setRenderingHint((RenderingHints.Key) hints[i], hints[i + 1]);
+        }
+    }
+
+    Object getTextAntialiasing() {
+        return textAntialiasing;
+    }
+
+    /**
+     * @return true if shapes may be filled straight into the pixel array by the direct
+     * backend, which does not antialias them
+     */
+    boolean isAliased() {
+        return this != HIGH;
+    }
+}
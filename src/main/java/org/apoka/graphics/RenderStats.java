@@ -0,0 +1,111 @@
+package org.apoka.graphics;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link RenderMetrics} keeping a histogram of durations per phase, to report
+ * percentiles. Durations are counted in log-linear buckets, each power of two being
+ * split in 16, so a percentile is known within about 6%. Recording is lock free.
+ */
+public class RenderStats implements RenderMetrics {
+    private final Map<String, Histogram> phases = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(String phase, long nanos) {
+        phases.computeIfAbsent(phase, p -> new Histogram()).record(nanos);
+    }
+
+    public long getCount(String phase) {
+        Histogram histogram = phases.get(phase);
+        return histogram != null ? histogram.count.get() : 0;
+    }
+
+    /**
+     * @param quantile between 0 and 1, 0.99 for the 99th percentile
+     * @return the duration in nanoseconds below which the quantile of the phases fall,
+     * 0 if none was recorded
+     */
+    public long getPercentile(String phase, double quantile) {
+        Histogram histogram = phases.get(phase);
+        return histogram != null ? histogram.percentile(quantile) : 0;
+    }
+
+    public long getMax(String phase) {
+        Histogram histogram = phases.get(phase);
+        return histogram != null ? histogram.max.get() : 0;
+    }
+
+    /**
+     * Print count, p50, p99 and max of every phase, in milliseconds.
+     */
+    public void print(PrintStream out) {
+        out.printf("%-16s %8s %10s %10s %10s%n", "phase", "count", "p50 ms", "p99 ms", "max ms");
+        for (String phase : new TreeMap<>(phases).keySet()) {
+            out.printf("%-16s %8d %10.3f %10.3f %10.3f%n", phase, getCount(phase),
+                    getPercentile(phase, 0.5) / 1e6, getPercentile(phase, 0.99) / 1e6, getMax(phase) / 1e6);
+        }
+    }
+
+    private static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 0);
+            buckets.incrementAndGet(bucket(nanos));
+            count.incrementAndGet();
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        /**
+         * Values below 16 have their own bucket; above, a bucket is the power of two and
+         * the next 4 bits of the value.
+         */
+        private static int bucket(long value) {
+            int bits = 64 - Long.numberOfLeadingZeros(value);
+            if (bits <= SUB_BITS) {
+                return (int) value;
+            }
+            int shift = bits - SUB_BITS - 1;
+            int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return (shift + 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * @return the largest value of the bucket
+         */
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return low + (1L << shift) - 1;
+        }
+
+        long percentile(double quantile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package org.apoka.graphics;
+
+import java.awt.*;
+import java.awt.font.TextAttribute;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable, backend independent description of a drawing: the ordered list of
+ * primitives issued on a {@link Canvas}. A scene can be rendered to a raster
+ * {@link Image}, giving the same pixels as drawing the primitives directly, or
+ * serialized as SVG.
+ */
+public final class Scene {
+    private final int width;
+    private final int height;
+    private final List<Op> ops;
+
+    private Scene(int width, int height, List<Op> ops) {
+        this.width = width;
+        this.height = height;
+        this.ops = Collections.unmodifiableList(new ArrayList<>(ops));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public List<Op> getOps() {
+        return ops;
+    }
+
+    /**
+     * Draw the scene onto the image.
+     */
+    public void render(Image image) {
+        image.session(() -> {
+            for (Op op : ops) {
+                op.render(image);
+            }
+        });
+    }
+
+    /**
+     * Draw the scene supersampled: onto an image factor times as large, with the quality
+     * of the given one, whose blocks of factor×factor pixels are then averaged into its
+     * pixels. They are replaced rather than drawn over. The factor is at most
+     * {@link Image#MAX_SUPERSAMPLING}.
+     */
+    public void render(Image image, int factor) {
+        if (factor < 1 || factor > Image.MAX_SUPERSAMPLING) {
+            throw new IllegalArgumentException("The supersampling factor must be between 1 and " + Image.MAX_SUPERSAMPLING);
+        }
+        if (factor == 1) {
+            render(image);
+            return;
+        }
+        Image.PixelFormat format = image.getPixelFormat() == Image.PixelFormat.ARGB ? Image.PixelFormat.ARGB : Image.PixelFormat.RGB;
+        Image large = Image.supersampled(image.getWidth(), image.getHeight(), factor, format, image.getQuality());
+        render(large);
+        image.downscale(large, factor);
+    }
+
+    /**
+     * Render the scene to a new image of the scene size.
+     */
+    public Image toImage() {
+        Image image = new Image(width, height);
+        render(image);
+        return image;
+    }
+
+    /**
+     * Render the scene strip by strip and stream the rows to a PNG, so that only one strip
+     * of bandHeight rows is held in memory instead of the whole raster. Each strip only
+     * draws the primitives reaching its rows. The pixels are the same as rendering the
+     * scene onto an opaque image; the stream is left open.
+     */
+    public void writePng(OutputStream out, int bandHeight, Image.Backend backend, PngEncoder encoder) throws IOException {
+        writePng(out, bandHeight, backend, RenderQuality.STANDARD, encoder);
+    }
+
+    /**
+     * Stream the scene to a PNG strip by strip, rasterized with the given quality.
+     */
+    public void writePng(OutputStream out, int bandHeight, Image.Backend backend, RenderQuality quality,
+                         PngEncoder encoder) throws IOException {
+        if (bandHeight <= 0) {
+            throw new IllegalArgumentException("The band height must be positive");
+        }
+        if (quality == RenderQuality.HIGH) {
+            backend = Image.Backend.JAVA2D;
+        }
+        int rows = Math.min(bandHeight, height);
+        //Java2D does not flatten a curve cut by the edge of the raster the same way as the
+        //whole curve, so with it a strip is drawn into enough rows to hold every curve
+        //reaching its own rows, and only its own rows are written. Spans are clipped to the
+        //scene, so the buffer is at most as tall as a whole render.
+        boolean curves = backend == Image.Backend.JAVA2D;
+        int buffer = rows;
+        for (int top = 0; curves && top < height; top += rows) {
+            int[] span = span(top, top + rows);
+            buffer = Math.max(buffer, span[1] - span[0]);
+        }
+        Image pixels = new Image(width, buffer, backend, Image.PixelFormat.RGB, quality);
+        try (PngEncoder.RowWriter writer = encoder.rows(width, height, out)) {
+            for (int top = 0; top < height; top += rows) {
+                int bottom = Math.min(top + rows, height);
+                //Keep the strip within the image, to clip curves at its edges like the whole image.
+                int origin = curves ? Math.max(0, Math.min(span(top, bottom)[0], height - buffer)) : top;
+                Image strip = pixels.strip(origin);
+                if (top > 0) {
+                    strip.clear();
+                }
+                render(strip, top, bottom);
+                writer.write(strip, top - origin, bottom - top);
+            }
+        }
+    }
+
+    /**
+     * Draw the ops reaching the rows [top, bottom) of the drawing onto the strip.
+     */
+    private void render(Image strip, int top, int bottom) {
+        strip.session(() -> {
+            for (Op op : ops) {
+                if (op.top() < bottom && op.bottom() > top) {
+                    op.render(strip);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return {@code {top, bottom}}, the rows [top, bottom) of the image spanned by the given
+     * rows and every curve reaching them
+     */
+    private int[] span(int top, int bottom) {
+        int[] span = {top, bottom};
+        for (Op op : ops) {
+            if (op.curve() && op.top() < bottom && op.bottom() > top) {
+                span[0] = Math.min(span[0], op.top());
+                span[1] = Math.max(span[1], op.bottom());
+            }
+        }
+        span[0] = Math.max(span[0], 0);
+        span[1] = Math.min(span[1], height);
+        return span;
+    }
+
+    public String toSvg() {
+        StringBuilder svg = new StringBuilder(256 + ops.size() * 96);
+        appendSvg(svg);
+        return svg.toString();
+    }
+
+    public void writeSvg(Writer writer) throws IOException {
+        try {
+            appendSvg(writer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    private void appendSvg(Appendable out) {
+        Svg svg = new Svg(out);
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(width)
+                .append("\" height=\"").append(height)
+                .append("\" viewBox=\"0 0 ").append(width).append(' ').append(height).append("\">\n");
+        for (Op op : ops) {
+            op.svg(svg);
+        }
+        svg.append("</svg>\n");
+    }
+
+    /**
+     * Start recording a scene of the given size.
+     */
+    public static Recorder recorder(int width, int height) {
+        return new Recorder(width, height);
+    }
+
+    /**
+     * Canvas keeping the primitives drawn on it. Text is laid out while recording, with
+     * the same metrics {@link Image} uses, so the returned line counts are the same.
+     */
+    public static final class Recorder implements Canvas {
+        private final int width;
+        private final int height;
+        private final List<Op> ops = new ArrayList<>();
+
+        private Recorder(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public void triangle(int x1, int y1, int x2, int y2, int x3, int y3, Color color) {
+            ops.add(new Triangle(x1, y1, x2, y2, x3, y3, color));
+        }
+
+        @Override
+        public void rect(int x, int y, int width, int height, Color color) {
+            ops.add(new Rect(x, y, width, height, color));
+        }
+
+        @Override
+        public void ellipse(int x, int y, int width, int height, Color color) {
+            ops.add(new Ellipse(x, y, width, height, color));
+        }
+
+        @Override
+        public void arc(int x, int y, int width, int height, int start, int angle, Color color, int thick) {
+            ops.add(new Arc(x, y, width, height, start, angle, color, thick));
+        }
+
+        @Override
+        public int[] text(String text, int x, int y, int width, int height, Color color, Font font) {
+            TextBlock block = TextBlock.layout(text, x, y, width, height, font);
+            ops.add(new Text(block, color, font));
+            return block.result();
+        }
+
+        public Scene build() {
+            return new Scene(width, height, ops);
+        }
+    }
+
+    /**
+     * A single drawing primitive of the scene.
+     */
+    public abstract static class Op {
+        private final Color color;
+
+        private Op(Color color) {
+            this.color = color;
+        }
+
+        public Color getColor() {
+            return color;
+        }
+
+        abstract void render(Image image);
+
+        abstract void svg(Svg svg);
+
+        /**
+         * @return the first row the primitive may draw into
+         */
+        abstract int top();
+
+        /**
+         * @return the row after the last one the primitive may draw into
+         */
+        abstract int bottom();
+
+        /**
+         * @return true if Java2D may draw other pixels when the primitive is clipped
+         */
+        boolean curve() {
+            return false;
+        }
+    }
+
+    private static final class Rect extends Op {
+        private final int x, y, width, height;
+
+        Rect(int x, int y, int width, int height, Color color) {
+            super(color);
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        void render(Image image) {
+            image.rect(x, y, width, height, getColor());
+        }
+
+        @Override
+        int top() {
+            return y;
+        }
+
+        @Override
+        int bottom() {
+            return y + height;
+        }
+
+        @Override
+        void svg(Svg svg) {
+            if (width <= 0 || height <= 0) {
+                return;
+            }
+            svg.append("<rect x=\"").append(x).append("\" y=\"").append(y)
+                    .append("\" width=\"").append(width).append("\" height=\"").append(height).append('"')
+                    .fill(getColor()).append("/>\n");
+        }
+    }
+
+    private static final class Ellipse extends Op {
+        private final int x, y, width, height;
+
+        Ellipse(int x, int y, int width, int height, Color color) {
+            super(color);
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        void render(Image image) {
+            image.ellipse(x, y, width, height, getColor());
+        }
+
+        //One row of antialiasing on each side.
+        @Override
+        int top() {
+            return y - 1;
+        }
+
+        @Override
+        int bottom() {
+            return y + height + 1;
+        }
+
+        @Override
+        boolean curve() {
+            return true;
+        }
+
+        @Override
+        void svg(Svg svg) {
+            if (width <= 0 || height <= 0) {
+                return;
+            }
+            svg.append("<ellipse cx=\"").append(x + width / 2.0).append("\" cy=\"").append(y + height / 2.0)
+                    .append("\" rx=\"").append(width / 2.0).append("\" ry=\"").append(height / 2.0).append('"')
+                    .fill(getColor()).append("/>\n");
+        }
+    }
+
+    private static final class Triangle extends Op {
+        private final int x1, y1, x2, y2, x3, y3;
+
+        Triangle(int x1, int y1, int x2, int y2, int x3, int y3, Color color) {
+            super(color);
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.x3 = x3;
+            this.y3 = y3;
+        }
+
+        @Override
+        void render(Image image) {
+            image.triangle(x1, y1, x2, y2, x3, y3, getColor());
+        }
+
+        @Override
+        int top() {
+            return Math.min(y1, Math.min(y2, y3)) - 1;
+        }
+
+        @Override
+        int bottom() {
+            return Math.max(y1, Math.max(y2, y3)) + 1;
+        }
+
+        @Override
+        void svg(Svg svg) {
+            svg.append("<polygon points=\"").append(x1).append(',').append(y1).append(' ')
+                    .append(x2).append(',').append(y2).append(' ').append(x3).append(',').append(y3).append('"')
+                    .fill(getColor()).append("/>\n");
+        }
+    }
+
+    private static final class Arc extends Op {
+        private final int x, y, width, height, start, angle, thick;
+
+        Arc(int x, int y, int width, int height, int start, int angle, Color color, int thick) {
+            super(color);
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.start = start;
+            this.angle = angle;
+            this.thick = thick;
+        }
+
+        @Override
+        void render(Image image) {
+            image.arc(x, y, width, height, start, angle, getColor(), thick);
+        }
+
+        //The stroke and its square caps stay within a thickness of the bounds.
+        @Override
+        int top() {
+            return y - thick - 1;
+        }
+
+        @Override
+        int bottom() {
+            return y + height + thick + 1;
+        }
+
+        @Override
+        boolean curve() {
+            return true;
+        }
+
+        @Override
+        void svg(Svg svg) {
+            //Same bounds Image.arc hands to Graphics.drawArc.
+            double rx = (width - thick * 2) / 2.0;
+            double ry = (height - thick * 2) / 2.0;
+            if (rx <= 0 || ry <= 0 || angle == 0) {
+                return;
+            }
+            double cx = x + thick / 2 + rx;
+            double cy = y + thick / 2 + ry;
+            double from = Math.toRadians(start);
+            double to = Math.toRadians(start + angle);
+
+            //Java2D angles run counterclockwise with y pointing down.
+            svg.append("<path d=\"M").append(cx + rx * Math.cos(from)).append(',').append(cy - ry * Math.sin(from))
+                    .append(" A").append(rx).append(',').append(ry).append(" 0 ")
+                    .append(Math.abs(angle) > 180 ? 1 : 0).append(' ').append(angle > 0 ? 0 : 1).append(' ')
+                    .append(cx + rx * Math.cos(to)).append(',').append(cy - ry * Math.sin(to))
+                    .append("\" fill=\"none\" stroke-linecap=\"square\" stroke-width=\"").append(Math.max(thick, 1)).append('"')
+                    .color("stroke", getColor()).append("/>\n");
+        }
+    }
+
+    private static final class Text extends Op {
+        private final TextBlock block;
+        private final Font font;
+
+        Text(TextBlock block, Color color, Font font) {
+            super(color);
+            this.block = block;
+            this.font = font;
+        }
+
+        @Override
+        void render(Image image) {
+            image.text(block, getColor(), font);
+        }
+
+        @Override
+        int top() {
+            return block.top();
+        }
+
+        @Override
+        int bottom() {
+            return block.bottom();
+        }
+
+        @Override
+        void svg(Svg svg) {
+            Object family = font.getAttributes().get(TextAttribute.FAMILY);
+            Object weight = font.getAttributes().get(TextAttribute.WEIGHT);
+            Object width = font.getAttributes().get(TextAttribute.WIDTH);
+            boolean bold = font.isBold() || (weight instanceof Number && ((Number) weight).floatValue() >= TextAttribute.WEIGHT_BOLD);
+            boolean condensed = width instanceof Number && ((Number) width).floatValue() < 1f;
+
+            for (int i = 0; i < block.getLineCount(); i++) {
+                svg.append("<text x=\"").append(block.getX()).append("\" y=\"").append(block.getBaseline(i))
+                        .append("\" font-family=\"").escape(family != null ? family.toString() : font.getFamily())
+                        .append(", sans-serif\" font-size=\"").append(font.getSize2D()).append('"');
+                if (bold) {
+                    svg.append(" font-weight=\"bold\"");
+                }
+                if (condensed) {
+                    svg.append(" font-stretch=\"condensed\"");
+                }
+                svg.fill(getColor()).append('>').escape(block.getLine(i)).append("</text>\n");
+            }
+        }
+    }
+
+    /**
+     * Small helper writing SVG markup to an {@link Appendable}.
+     */
+    static final class Svg {
+        private final Appendable out;
+
+        Svg(Appendable out) {
+            this.out = out;
+        }
+
+        Svg append(CharSequence s) {
+            try {
+                out.append(s);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Svg append(char c) {
+            return append(String.valueOf(c));
+        }
+
+        Svg append(int i) {
+            return append(Integer.toString(i));
+        }
+
+        Svg append(double d) {
+            String number = String.format(Locale.ROOT, "%.2f", d);
+            //Drop the trailing zeros, and the point of whole numbers.
+            int end = number.length();
+            while (number.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (number.charAt(end - 1) == '.') {
+                end--;
+            }
+            return append(number.substring(0, end));
+        }
+
+        Svg fill(Color color) {
+            return color("fill", color);
+        }
+
+        Svg color(String attribute, Color color) {
+            append(' ').append(attribute).append("=\"")
+                    .append(String.format(Locale.ROOT, "#%06x", color.getRGB() & 0xffffff)).append('"');
+            if (color.getAlpha() < 255) {
+                append(' ').append(attribute).append("-opacity=\"").append(color.getAlpha() / 255.0).append('"');
+            }
+            return this;
+        }
+
+        Svg escape(String text) {
+            StringBuilder escaped = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '<': escaped.append("&lt;"); break;
+                    case '>': escaped.append("&gt;"); break;
+                    case '&': escaped.append("&amp;"); break;
+                    case '"': escaped.append("&quot;"); break;
+                    default:
+                        //Control characters are not allowed in XML 1.0.
+                        if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                            escaped.append(c);
+                        }
+                }
+            }
+            return append(escaped);
+        }
+    }
+}
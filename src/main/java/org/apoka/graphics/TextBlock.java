@@ -0,0 +1,236 @@
+package org.apoka.graphics;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of wrapping a text into a bounding box: the lines to draw and the
+ * baseline of each of them. Laying out a text only needs font metrics, so it can be
+ * done without a raster, and drawing the block afterwards gives the same result as
+ * {@link Image#text}.
+ */
+public final class TextBlock {
+    private static final String ELLIPSIS = "\u2026";
+    private static final Graphics2D SCRATCH = scratchGraphics();
+
+    private final String[] lines;
+    private final int x;
+    private final int[] baselines;
+    private final int nlines;
+    private final int fontHeight;
+
+    private TextBlock(List<String> lines, int x, List<Integer> baselines, int nlines, int fontHeight) {
+        this.lines = lines.toArray(new String[0]);
+        this.x = x;
+        this.baselines = baselines.stream().mapToInt(Integer::intValue).toArray();
+        this.nlines = nlines;
+        this.fontHeight = fontHeight;
+    }
+
+    /**
+     * Lay out the text with the metrics {@link Image} uses by default.
+     */
+    public static TextBlock layout(String text, int x, int y, int width, int height, Font font) {
+        TextMeasure measure;
+        synchronized (SCRATCH) {
+            measure = TextMeasure.get(font, SCRATCH);
+        }
+        return layout(text, x, y, width, height, measure);
+    }
+
+    private static Graphics2D scratchGraphics() {
+        Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        return g;
+    }
+
+    /**
+     * Break the text into lines fitting the width, starting at x, y. Lines stop once
+     * the baseline goes past the height, and a first word too wide for a line is chopped
+     * with an ellipsis.
+     *
+     * Widths of simple text are summed from cached character advances as words are added
+     * to a line, instead of measuring the whole line again for every word. The breaks are
+     * the same as measuring each candidate line with {@link FontMetrics#stringWidth}.
+     */
+    static TextBlock layout(String text, int x, int y, int width, int height, TextMeasure measure) {
+        FontMetrics metrics = measure.metrics();
+        boolean fast = measure.isSimple(text);
+        List<String> lines = new ArrayList<>();
+        List<Integer> baselines = new ArrayList<>();
+        int fontHeight = metrics.getHeight();
+
+        //Initialize text cursor to the baseline of the font.
+        int w_y = metrics.getAscent() + y;
+
+        //Break the text one line at a time and ensure the bounding box.
+        StringBuilder line = new StringBuilder();
+        float line_advance = 0f;
+        int nlines = 1;
+        for(String word : text.split(" ")) {
+            //The candidate line is String.join(" ", line, word).trim(). When the line does
+            //not start with blanks, that is the line plus the word without trailing blanks,
+            //and its width follows from the width of the line.
+            String candidate = null;
+            String tail = null;
+            float advance = 0f;
+            int line_width;
+            if (!fast) {
+                candidate = String.join(" ", line, word).trim();
+                line_width = metrics.stringWidth(candidate);
+            } else if (line.length() == 0 || line.charAt(0) <= ' ') {
+                candidate = String.join(" ", line, word).trim();
+                advance = measure.advance(candidate, 0f);
+                line_width = TextMeasure.round(advance);
+            } else {
+                tail = trimTrailing(word);
+                if (tail.isEmpty()) {
+                    candidate = trimTrailing(line);
+                    advance = candidate.length() == line.length() ? line_advance : measure.advance(candidate, 0f);
+                } else {
+                    advance = measure.advance(tail, line_advance + measure.advance(' '));
+                }
+                line_width = TextMeasure.round(advance);
+            }
+
+            if(line_width<width) {
+                if (candidate != null) {
+                    line.setLength(0);
+                    line.append(candidate);
+                } else {
+                    line.append(' ').append(tail);
+                }
+                line_advance = advance;
+            } else if(line.length() == 0) {
+                //First word of the line extends beyond the line: chop and done.
+                lines.add(fast ? chop(measure, word, width) : chop(metrics, word, width));
+                baselines.add(w_y);
+                return new TextBlock(lines, x, baselines, nlines, fontHeight);
+            } else {
+                //Filled a line, keep it, and move on to the next line.
+                lines.add(line.toString());
+                baselines.add(w_y);
+                line.setLength(0);
+                line.append(word);
+                line_advance = fast ? measure.advance(word, 0f) : 0f;
+                w_y += metrics.getHeight();
+
+                if(w_y > height) {
+                    return new TextBlock(lines, x, baselines, nlines, fontHeight);
+                }
+                nlines++;
+            }
+        }
+
+        lines.add(line.toString());
+        baselines.add(w_y);
+
+        return new TextBlock(lines, x, baselines, nlines, fontHeight);
+    }
+
+    /**
+     * Remove trailing characters String.trim() would remove.
+     */
+    private static String trimTrailing(CharSequence text) {
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return text.subSequence(0, end).toString();
+    }
+
+    /**
+     * Find the longest prefix of the word that, followed by an ellipsis, stays narrower
+     * than the width. Widths of the prefixes grow with their length, so the cut is found
+     * with a binary search over the running advances.
+     */
+    private static String chop(TextMeasure measure, String word, int width) {
+        //Running advances, only as far as the first prefix that alone is too wide.
+        float[] prefix = new float[word.length() + 1];
+        int end = 0;
+        while (end < word.length() && TextMeasure.round(prefix[end]) < width) {
+            prefix[end + 1] = prefix[end] + measure.advance(word.charAt(end));
+            end++;
+        }
+        float ellipsis = measure.advance(ELLIPSIS.charAt(0));
+
+        //Smallest i such that word[0..i] plus the ellipsis does not fit.
+        int low = 0;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (TextMeasure.round(prefix[mid + 1] + ellipsis) >= width) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        if (low == end) {
+            throw new RuntimeException("Should not be here, else 'word' fit into the bounding box");
+        }
+        return word.substring(0, low) + ELLIPSIS;
+    }
+
+    private static String chop(FontMetrics metrics, String word, int width) {
+        String total = "";
+
+        for(char c : word.toCharArray()) {
+            int total_width = metrics.stringWidth(total+c+ELLIPSIS);
+
+            if(total_width >= width) {
+                return total + ELLIPSIS;
+            }
+
+            total += c;
+        }
+
+        throw new RuntimeException("Should not be here, else 'word' fit into the bounding box");
+    }
+
+    public int getLineCount() {
+        return lines.length;
+    }
+
+    public String getLine(int i) {
+        return lines[i];
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getBaseline(int i) {
+        return baselines[i];
+    }
+
+    /**
+     * @return true if the lines may draw into the rows [top, bottom)
+     */
+    boolean intersects(int top, int bottom) {
+        return lines.length > 0 && top() < bottom && bottom() > top;
+    }
+
+    /**
+     * @return the first row the lines may draw into. Glyphs are taken to reach at most
+     * twice the font height above or below their baseline.
+     */
+    int top() {
+        return lines.length > 0 ? baselines[0] - 2 * fontHeight : 0;
+    }
+
+    /**
+     * @return the row after the last one the lines may draw into
+     */
+    int bottom() {
+        return lines.length > 0 ? baselines[lines.length - 1] + 2 * fontHeight + 1 : 0;
+    }
+
+    /**
+     * @return {@code {nlines, fontHeight}} as returned by {@link Image#text}
+     */
+    public int[] result() {
+        return new int[]{nlines, fontHeight};
+    }
+}
@@ -0,0 +1,144 @@
+package org.apoka.graphics;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Font metrics plus a cache of per-character advances, shared by every layout using
+ * the same font and rendering context.
+ *
+ * For simple text, {@link FontMetrics#stringWidth} is the sum of the float advances of
+ * the characters, rounded at the end. Summing the cached advances in the same order
+ * gives the same widths, and lets a line be measured incrementally as words are added.
+ * Text needing complex layout (combining marks, bidi and Indic scripts, surrogates) or
+ * fonts with layout attributes such as kerning must be measured with the metrics.
+ */
+final class TextMeasure {
+    private static final int MAX_CACHED = 512;
+    private static final Map<Key, TextMeasure> CACHE = new ConcurrentHashMap<>();
+
+    private final FontMetrics metrics;
+    private final boolean simpleFont;
+    private final AtomicReferenceArray<float[]> pages = new AtomicReferenceArray<>(256);
+
+    private TextMeasure(FontMetrics metrics) {
+        this.metrics = metrics;
+        this.simpleFont = !metrics.getFont().hasLayoutAttributes();
+    }
+
+    /**
+     * @return the measure of the font as rendered by the graphics context
+     */
+    static TextMeasure get(Font font, Graphics2D g) {
+        Key key = new Key(font, g.getFontRenderContext());
+        TextMeasure measure = CACHE.get(key);
+        if (measure == null) {
+            if (CACHE.size() >= MAX_CACHED) {
+                CACHE.clear();
+            }
+            measure = CACHE.computeIfAbsent(key, k -> new TextMeasure(g.getFontMetrics(font)));
+        }
+        return measure;
+    }
+
+    FontMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return true if widths of the text can be computed from cached advances
+     */
+    boolean isSimple(String text) {
+        if (!simpleFont) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (!isSimple(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Conservative version of the test Java2D uses to decide whether a character needs
+     * a full text layout.
+     */
+    private static boolean isSimple(char c) {
+        if (c < 0x2000) {
+            return c < 0x0300 || (c > 0x036f && c < 0x0590);
+        } else if (c <= 0x206f) {
+            //General punctuation is simple, except for joiners and directional controls.
+            return c < 0x200c || (c > 0x200d && c < 0x202a) || (c > 0x202e && c < 0x206a);
+        }
+        return !Character.isSurrogate(c);
+    }
+
+    float advance(char c) {
+        float[] page = pages.get(c >> 8);
+        if (page == null) {
+            page = loadPage(c >> 8);
+        }
+        return page[c & 0xff];
+    }
+
+    /**
+     * Add the advances of the characters to start, in order.
+     */
+    float advance(CharSequence text, float start) {
+        for (int i = 0; i < text.length(); i++) {
+            start += advance(text.charAt(i));
+        }
+        return start;
+    }
+
+    /**
+     * Round a summed advance the way {@link FontMetrics#stringWidth} does.
+     */
+    static int round(float advance) {
+        return (int) (0.5 + advance);
+    }
+
+    private float[] loadPage(int index) {
+        Font font = metrics.getFont();
+        FontRenderContext frc = metrics.getFontRenderContext();
+        float[] page = new float[256];
+        char[] glyph = new char[1];
+        for (int i = 0; i < 256; i++) {
+            glyph[0] = (char) (index << 8 | i);
+            if (isSimple(glyph[0])) {
+                page[i] = (float) font.getStringBounds(glyph, 0, 1, frc).getWidth();
+            }
+        }
+        pages.compareAndSet(index, null, page);
+        return pages.get(index);
+    }
+
+    private static final class Key {
+        private final Font font;
+        private final FontRenderContext frc;
+
+        Key(Font font, FontRenderContext frc) {
+            this.font = font;
+            this.frc = frc;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return font.equals(key.font) && frc.equals(key.frc);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(font, frc);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package org.apoka.tenprintcover;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Sink streaming covers one after the other into a ZIP or TAR archive, instead of
+ * creating a file per cover. ZIP entries are stored without compression, PNGs being
+ * compressed already.
+ *
+ * With a size limit, covers go to a series of archives named after the target with a
+ * part number, {@code covers-00000.zip}, {@code covers-00001.zip}, ..., each one closed
+ * before it grows larger than the limit. A new run continues after the last existing
+ * part, so a batch resumed from its checkpoint does not overwrite what was written.
+ * Without a limit, the target is a single archive, which must not exist yet: a run
+ * writing one cannot be resumed, it is complete or absent.
+ *
+ * An archive is written as {@code covers-00000.zip.partial} and renamed once complete and
+ * synced to disk; only then are its covers indexed and reported stored, so a checkpoint
+ * never lists a cover an interrupted run lost. The part left by such a run is overwritten.
+ *
+ * Every cover is recorded in an index next to the target, {@code covers.zip.idx}, as a line
+ * {@code name <TAB> archive <TAB> offset <TAB> length}: its data can be read back
+ * directly at that offset of the archive. The index is appended to by later runs.
+ */
+public class ArchiveSink implements CoverSink {
+    public enum Format {
+        ZIP, TAR
+    }
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Path target;
+    private final Format format;
+    private final long maxBytes;
+    private final FileChannel index;
+    private Part part;
+    private int partNumber;
+
+    /**
+     * @param maxBytes the size limit of each archive, 0 to write a single archive
+     */
+    public ArchiveSink(Path target, Format format, long maxBytes) throws IOException {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("The archive size limit must not be negative");
+        }
+        this.target = target;
+        this.format = format;
+        this.maxBytes = maxBytes;
+        if (maxBytes == 0 && Files.exists(target)) {
+            throw new IOException("The archive " + target + " already exists");
+        }
+        while (maxBytes > 0 && Files.exists(partPath(partNumber))) {
+            partNumber++;
+        }
+        index = FileChannel.open(indexPath(target), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return the index of the archive: the target followed by {@code .idx}
+     */
+    public static Path indexPath(Path target) {
+        return target.resolveSibling(target.getFileName() + ".idx");
+    }
+
+    private Path partPath(int number) {
+        if (maxBytes == 0) {
+            return target;
+        }
+        String name = target.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0) {
+            dot = name.length();
+        }
+        return target.resolveSibling(String.format("%s-%05d%s", name.substring(0, dot), number, name.substring(dot)));
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        write(name, data, () -> {});
+    }
+
+    /**
+     * Store the cover; {@code stored} runs once its archive is complete.
+     */
+    @Override
+    public synchronized void write(String name, byte[] data, Runnable stored) throws IOException {
+        if (name.isEmpty() || name.indexOf('\t') >= 0 || name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Invalid entry name '" + name + "'");
+        }
+        if (part != null && maxBytes > 0 && part.entries > 0 && part.sizeWith(name, data.length) > maxBytes) {
+            closePart();
+        }
+        if (part == null) {
+            Path path = partPath(partNumber++);
+            part = format == Format.ZIP ? new ZipPart(path) : new TarPart(path);
+        }
+        long offset = part.add(name, data);
+        part.index.append(name).append('\t').append(part.path.getFileName()).append('\t').append(offset)
+                .append('\t').append(data.length).append(System.lineSeparator());
+        part.stored.add(stored);
+    }
+
+    /**
+     * Close the current archive, so that its covers are stored. A single archive is only
+     * complete once the sink is closed.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (part != null && maxBytes > 0) {
+            closePart();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (part != null) {
+                closePart();
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    private void closePart() throws IOException {
+        Part closed = part;
+        part = null;
+        closed.close();
+        ByteBuffer lines = ByteBuffer.wrap(closed.index.toString().getBytes(StandardCharsets.UTF_8));
+        while (lines.hasRemaining()) {
+            index.write(lines);
+        }
+        index.force(false);
+        for (Runnable stored : closed.stored) {
+            stored.run();
+        }
+    }
+
+    /**
+     * An archive being written, through one buffered channel, with the index lines and
+     * callbacks of its covers.
+     */
+    private abstract static class Part implements Closeable {
+        final Path path;
+        final Path partial;
+        final FileChannel channel;
+        final Counter out;
+        final StringBuilder index = new StringBuilder();
+        final List<Runnable> stored = new ArrayList<>();
+        int entries;
+
+        Part(Path path) throws IOException {
+            this.path = path;
+            this.partial = path.resolveSibling(path.getFileName() + ".partial");
+            channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.out = new Counter(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        }
+
+        /**
+         * @return the offset of the data of the entry in the archive
+         */
+        abstract long add(String name, byte[] data) throws IOException;
+
+        /**
+         * @return the size of the archive if the entry were added and the archive closed
+         */
+        abstract long sizeWith(String name, int length);
+
+        /**
+         * Write the end of the archive.
+         */
+        abstract void finish() throws IOException;
+
+        /**
+         * Complete the archive, sync it and give it its name.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+                out.flush();
+                channel.force(true);
+            } finally {
+                out.close();
+            }
+            Files.move(partial, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static final class ZipPart extends Part {
+        private final ZipOutputStream zip;
+        private final CRC32 crc = new CRC32();
+        private long directory;
+
+        ZipPart(Path path) throws IOException {
+            super(path);
+            zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        long add(String name, byte[] data) throws IOException {
+            crc.reset();
+            crc.update(data);
+            ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            //The local header has been written, the data starts here.
+            long offset = out.count;
+            zip.write(data);
+            zip.closeEntry();
+            entries++;
+            directory += 46 + nameLength(name);
+            return offset;
+        }
+
+        @Override
+        long sizeWith(String name, int length) {
+            //Local header, data, central directory entries and end of central directory.
+            return out.count + 30 + nameLength(name) + length + directory + 46 + nameLength(name) + 22;
+        }
+
+        private static int nameLength(String name) {
+            return name.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        @Override
+        void finish() throws IOException {
+            zip.finish();
+        }
+    }
+
+    /**
+     * Writes POSIX ustar archives.
+     */
+    private static final class TarPart extends Part {
+        private static final int BLOCK = 512;
+
+        TarPart(Path path) throws IOException {
+            super(path);
+        }
+
+        @Override
+        long add(String name, byte[] data) throws IOException {
+            out.write(header(name, data.length));
+            long offset = out.count;
+            out.write(data);
+            out.write(new byte[padding(data.length)]);
+            entries++;
+            return offset;
+        }
+
+        @Override
+        long sizeWith(String name, int length) {
+            //Header, data, padding and the two empty blocks ending the archive.
+            return out.count + BLOCK + length + padding(length) + 2 * BLOCK;
+        }
+
+        private static int padding(long length) {
+            return (int) ((BLOCK - length % BLOCK) % BLOCK);
+        }
+
+        private static byte[] header(String name, long size) {
+            byte[] header = new byte[BLOCK];
+            byte[] path = name.getBytes(StandardCharsets.UTF_8);
+            int split = 0;
+            if (path.length > 100) {
+                //Longer names are split on a slash between the prefix and the name fields.
+                for (int i = path.length - 1; i > 0; i--) {
+                    if (path[i] == '/' && i <= 155 && path.length - i - 1 <= 100) {
+                        split = i;
+                        break;
+                    }
+                }
+                if (split == 0) {
+                    throw new IllegalArgumentException("Entry name too long for a tar archive: " + name);
+                }
+                System.arraycopy(path, 0, header, 345, split);
+                System.arraycopy(path, split + 1, header, 0, path.length - split - 1);
+            } else {
+                System.arraycopy(path, 0, header, 0, path.length);
+            }
+            octal(header, 100, 8, 0644);
+            octal(header, 108, 8, 0);
+            octal(header, 116, 8, 0);
+            octal(header, 124, 12, size);
+            octal(header, 136, 12, System.currentTimeMillis() / 1000);
+            header[156] = '0';
+            System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+            //The checksum is computed with its own field filled with spaces.
+            for (int i = 148; i < 156; i++) {
+                header[i] = ' ';
+            }
+            long checksum = 0;
+            for (byte b : header) {
+                checksum += b & 0xff;
+            }
+            octal(header, 148, 7, checksum);
+            return header;
+        }
+
+        /**
+         * Write the value as zero padded octal digits followed by a NUL.
+         */
+        private static void octal(byte[] header, int offset, int length, long value) {
+            byte[] digits = String.format("%0" + (length - 1) + "o", value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(digits, 0, header, offset, length - 1);
+            header[offset + length - 1] = 0;
+        }
+
+        @Override
+        void finish() throws IOException {
+            out.write(new byte[2 * BLOCK]);
+        }
+    }
+
+    /**
+     * Counts the bytes written through it, to know the offsets of the entries.
+     */
+    private static final class Counter extends FilterOutputStream {
+        long count;
+
+        Counter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.apoka.graphics.RenderQuality;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of rendered artwork layers. The artwork square only depends on the C64 version
+ * of the title, the grid, the base/shape color pair, the glyph set and the way it is rasterized, so
+ * covers sharing them (editions, translations, volumes of a series) draw it once and
+ * then copy it, see {@link Cover#setArtworkCache}. A layer has the size of its covers,
+ * so that every shape lands on the same device coordinates as when drawn in place.
+ *
+ * The cache is bounded by the total size of its layers and evicts the least recently
+ * used ones first; layers too large to keep a useful number of them are drawn in place.
+ * It can be shared between threads.
+ */
+public class ArtworkCache {
+    public static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+    private static final int MAX_LAYER_SHARE = 8;
+
+    private final long maxBytes;
+    private final Map<Key, Image> layers = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ArtworkCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public ArtworkCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The artwork cache size must be positive");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return true if a layer of that size is worth caching
+     */
+    boolean accepts(int width, int height) {
+        return 4L * width * height <= maxBytes / MAX_LAYER_SHARE;
+    }
+
+    synchronized Image get(Key key) {
+        Image layer = layers.get(key);
+        if (layer != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return layer;
+    }
+
+    synchronized void put(Key key, Image layer) {
+        if (layers.put(key, layer) == null) {
+            bytes += layerBytes(layer);
+        }
+        var it = layers.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Image evicted = it.next().getValue();
+            it.remove();
+            bytes -= layerBytes(evicted);
+            evictions++;
+        }
+    }
+
+    private static long layerBytes(Image layer) {
+        return 4L * layer.getWidth() * layer.getHeight();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Everything an artwork layer depends on.
+     */
+    static final class Key {
+        private final String c64_title;
+        private final int width;
+        private final int height;
+        private final int count;
+        private final int size;
+        private final int base;
+        private final int shape;
+        private final GlyphSet glyphs;
+        private final Image.Backend backend;
+        private final RenderQuality quality;
+        private final boolean atlas;
+
+        Key(String c64_title, int width, int height, int count, int size, int base, int shape, GlyphSet glyphs,
+            Image.Backend backend, RenderQuality quality, boolean atlas) {
+            this.c64_title = c64_title;
+            this.width = width;
+            this.height = height;
+            this.count = count;
+            this.size = size;
+            this.base = base;
+            this.shape = shape;
+            this.glyphs = glyphs;
+            this.backend = backend;
+            this.quality = quality;
+            this.atlas = atlas;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return width == key.width && height == key.height && count == key.count && size == key.size && base == key.base
+                    && shape == key.shape && glyphs == key.glyphs && atlas == key.atlas && backend == key.backend
+                    && quality == key.quality && c64_title.equals(key.c64_title);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(c64_title, width, height, count, size, base, shape, glyphs, backend, quality, atlas);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package org.apoka.tenprintcover;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Render every cover of a {@link Manifest} in a single JVM on a fixed pool of workers.
+ *
+ * A manifest can be split across processes or machines with a shard: shard {@code i}
+ * of {@code n} only renders the entries whose ordinal modulo {@code n} is {@code i}.
+ * When a checkpoint file is given, the ordinal of every cover stored successfully is
+ * appended to it and entries already listed there are skipped, so an interrupted run
+ * can be resumed with the same command line. A cover written to a sink is only recorded
+ * once the sink has stored it for good, see {@link CoverSink#write(String, byte[], Runnable)}.
+ */
+public class BatchRenderer {
+    private static final int MAX_REPORTED_FAILURES = 20;
+    private static final int CHECKPOINT_FLUSH_INTERVAL = 256;
+
+    private final int threads;
+    private final int shardIndex;
+    private final int shardCount;
+    private final Path checkpoint;
+    private RenderContext context = new RenderContext();
+    private CoverCache cache;
+    private CoverSink sink;
+    private int[] stages;
+
+    public BatchRenderer(int threads) {
+        this(threads, 0, 1, null);
+    }
+
+    public BatchRenderer(int threads, int shardIndex, int shardCount, Path checkpoint) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalArgumentException("Invalid shard " + shardIndex + "/" + shardCount);
+        }
+        this.threads = threads;
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Render the covers with that context instead of a default one.
+     */
+    public void setRenderContext(RenderContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Serve PNG covers from the cache when possible, and store the ones drawn.
+     */
+    public void setCache(CoverCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Write the covers to the sink, under their output name, instead of to the files
+     * named by their output. The sink is not closed by the renderer.
+     */
+    public void setSink(CoverSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Render through a {@link RenderPipeline} with that many draw, encode and write
+     * threads instead of drawing, encoding and writing each cover on one worker.
+     */
+    public void setStages(int drawThreads, int encodeThreads, int writeThreads) {
+        this.stages = new int[]{drawThreads, encodeThreads, writeThreads};
+    }
+
+    /**
+     * Parse a shard given as {@code i/n}.
+     * @return {@code {i, n}}
+     */
+    public static int[] parseShard(String shard) {
+        String[] parts = shard.split("/");
+        try {
+            if (parts.length == 2) {
+                int index = Integer.parseInt(parts[0].trim());
+                int count = Integer.parseInt(parts[1].trim());
+                if (count >= 1 && index >= 0 && index < count) {
+                    return new int[]{index, count};
+                }
+            }
+        } catch (NumberFormatException e) {
+            //fall through
+        }
+        throw new IllegalArgumentException("Invalid shard '" + shard + "', expected i/n with 0 <= i < n");
+    }
+
+    public Summary run(Manifest manifest) throws IOException, InterruptedException {
+        BitSet done = loadCheckpoint();
+        Summary summary = new Summary();
+        if (stages != null) {
+            return runPipeline(manifest, done, summary);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        //Bound the number of queued covers, the manifest may hold millions of entries.
+        Semaphore slots = new Semaphore(threads * 2);
+        long start = System.nanoTime();
+
+        try (CheckpointLog log = openCheckpoint()) {
+            try {
+                while (manifest.hasNext()) {
+                    Manifest.Entry entry = manifest.next();
+                    long ordinal = entry.getOrdinal();
+                    if (ordinal % shardCount != shardIndex) {
+                        continue;
+                    }
+                    if (ordinal <= Integer.MAX_VALUE && done.get((int) ordinal)) {
+                        summary.skipped.incrementAndGet();
+                        continue;
+                    }
+                    if (entry.getSpec() == null) {
+                        summary.fail(ordinal, entry.getError());
+                        continue;
+                    }
+
+                    slots.acquire();
+                    executor.execute(() -> {
+                        try {
+                            render(entry.getSpec(), () -> record(log, ordinal, summary));
+                            summary.rendered.incrementAndGet();
+                        } catch (Throwable e) {
+                            summary.fail(ordinal, entry.getSpec().getOutput() + ": " + e);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                }
+            } finally {
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            if (sink != null) {
+                sink.flush();
+            }
+        }
+        summary.elapsedNanos = System.nanoTime() - start;
+
+        return summary;
+    }
+
+    private Summary runPipeline(Manifest manifest, BitSet done, Summary summary) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try (CheckpointLog log = openCheckpoint()) {
+            RenderPipeline.Listener listener = new RenderPipeline.Listener() {
+                @Override
+                public void written(long ordinal, CoverSpec spec) {
+                    summary.rendered.incrementAndGet();
+                }
+
+                @Override
+                public void stored(long ordinal, CoverSpec spec) {
+                    record(log, ordinal, summary);
+                }
+
+                @Override
+                public void failed(long ordinal, CoverSpec spec, Throwable e) {
+                    summary.fail(ordinal, spec.getOutput() + ": " + e);
+                }
+            };
+            RenderPipeline pipeline = new RenderPipeline(stages[0], stages[1], stages[2],
+                    2 * Math.max(stages[0], Math.max(stages[1], stages[2])), sink, listener);
+            pipeline.setRenderContext(context);
+            pipeline.setCache(cache);
+            try (pipeline) {
+                while (manifest.hasNext()) {
+                    Manifest.Entry entry = manifest.next();
+                    long ordinal = entry.getOrdinal();
+                    if (ordinal % shardCount != shardIndex) {
+                        continue;
+                    }
+                    if (ordinal <= Integer.MAX_VALUE && done.get((int) ordinal)) {
+                        summary.skipped.incrementAndGet();
+                        continue;
+                    }
+                    if (entry.getSpec() == null) {
+                        summary.fail(ordinal, entry.getError());
+                        continue;
+                    }
+                    pipeline.submit(ordinal, entry.getSpec());
+                }
+            }
+            summary.pipeline = pipeline;
+            if (sink != null) {
+                sink.flush();
+            }
+        }
+        summary.elapsedNanos = System.nanoTime() - start;
+
+        return summary;
+    }
+
+    /**
+     * @param stored run once the cover is stored
+     */
+    private void render(CoverSpec spec, Runnable stored) throws IOException {
+        if (cache == null && sink == null) {
+            //Streamed to the file, banded covers are not held in memory.
+            context.cover(spec).save(spec.getOutput());
+            stored.run();
+            return;
+        }
+        byte[] data = context.encode(spec, cache);
+        if (sink != null) {
+            sink.write(spec.getOutput(), data, stored);
+        } else {
+            Files.write(Paths.get(spec.getOutput()), data);
+            stored.run();
+        }
+    }
+
+    private BitSet loadCheckpoint() throws IOException {
+        BitSet done = new BitSet();
+        if (checkpoint == null || !Files.exists(checkpoint)) {
+            return done;
+        }
+
+        //A killed run may have written part of its last record: drop it, so that the
+        //next records are not appended to it.
+        byte[] records = Files.readAllBytes(checkpoint);
+        int end = records.length;
+        while (end > 0 && records[end - 1] != '\n') {
+            end--;
+        }
+        if (end < records.length) {
+            try (FileChannel channel = FileChannel.open(checkpoint, StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+        }
+        for (String line : new String(records, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                long ordinal = Long.parseLong(line);
+                if (ordinal <= Integer.MAX_VALUE) {
+                    done.set((int) ordinal);
+                }
+            }
+        }
+        return done;
+    }
+
+    private CheckpointLog openCheckpoint() throws IOException {
+        if (checkpoint == null) {
+            return null;
+        }
+        return new CheckpointLog(Files.newBufferedWriter(checkpoint, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    }
+
+    private static void record(CheckpointLog log, long ordinal, Summary summary) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.record(ordinal);
+        } catch (IOException e) {
+            summary.fail(ordinal, "checkpoint: " + e);
+        }
+    }
+
+    /**
+     * The checkpoint of a run. Covers a sink only stores once it is closed, like those
+     * of a single archive, are stored after the run and not recorded.
+     */
+    private static final class CheckpointLog implements Closeable {
+        private final BufferedWriter out;
+        private long pending;
+        private boolean closed;
+
+        CheckpointLog(BufferedWriter out) {
+            this.out = out;
+        }
+
+        synchronized void record(long ordinal) throws IOException {
+            if (closed) {
+                return;
+            }
+            out.write(Long.toString(ordinal));
+            out.newLine();
+            if (++pending % CHECKPOINT_FLUSH_INTERVAL == 0) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            closed = true;
+            out.close();
+        }
+    }
+
+    /**
+     * Outcome of a batch run.
+     */
+    public static class Summary {
+        private final AtomicLong rendered = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        private long elapsedNanos;
+        private RenderPipeline pipeline;
+
+        private void fail(long ordinal, String message) {
+            failed.incrementAndGet();
+            if (failures.size() < MAX_REPORTED_FAILURES) {
+                failures.add("#" + ordinal + " " + message);
+            }
+        }
+
+        public long getRendered() {
+            return rendered.get();
+        }
+
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return the pipeline the covers went through, to look at its stages, or null
+         * when they were rendered by workers of their own
+         */
+        public RenderPipeline getPipeline() {
+            return pipeline;
+        }
+
+        public double getThroughput() {
+            return elapsedNanos > 0 ? rendered.get() * 1e9 / elapsedNanos : 0;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Rendered %d covers in %.1f s (%.1f covers/s), %d skipped, %d failed%n",
+                    getRendered(), elapsedNanos / 1e9, getThroughput(), getSkipped(), getFailed());
+            synchronized (failures) {
+                for (String failure : failures) {
+                    out.println("  failed " + failure);
+                }
+            }
+            if (getFailed() > failures.size()) {
+                out.println("  ... and " + (getFailed() - failures.size()) + " more failures");
+            }
+            if (pipeline != null) {
+                pipeline.print(out);
+            }
+        }
+    }
+}
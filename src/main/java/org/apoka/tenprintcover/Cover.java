@@ -1,21 +1,42 @@
 package org.apoka.tenprintcover;
 
+import org.apoka.graphics.Canvas;
+import org.apoka.graphics.FontCache;
 import org.apoka.graphics.Image;
+import org.apoka.graphics.PngEncoder;
+import org.apoka.graphics.RasterPool;
+import org.apoka.graphics.RenderProbe;
+import org.apoka.graphics.RenderQuality;
+import org.apoka.graphics.Scene;
 
 import java.awt.*;
-import java.awt.font.TextAttribute;
-import java.util.HashMap;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Cover {
     public static final int DEFAULT_WIDTH = 400;
     public static final int DEFAULT_HEIGHT = 600;
-    private static final String C64_LETTERS = " qQwWeErRtTyYuUiIoOpPaAsSdDfFgGhHjJkKlL:zZxXcCvVbBnNmM,;?<>@[]1234567890.=-+*/";
+    /**
+     * Identifies the drawing algorithm. Bump it whenever a change alters the pixels
+     * of existing covers, so that cached renders are not served anymore.
+     */
+    public static final String RENDERER_VERSION = "2";
+    /**
+     * Covers narrower than this draw their artwork on one thread even when parallel
+     * artwork is on: below it, forking costs more than it saves.
+     */
+    public static final int PARALLEL_ARTWORK_MIN_WIDTH = 1000;
     private final String title;
     private final String subtitle;
     private final String author;
@@ -25,6 +46,23 @@ public class Cover {
     private Image cover_image;
     private Color base_color;
     private Color shape_color;
+    private String c64_title;
+    private String title_font_family;
+    private String subtitle_font_family;
+    private String author_font_family;
+    private GlyphAtlas glyph_atlas;
+    private Image.Backend backend = Image.Backend.JAVA2D;
+    private boolean parallel_artwork;
+    private ArtworkCache artwork_cache;
+    private RasterPool raster_pool;
+    private Image.PixelFormat pixel_format = Image.PixelFormat.ARGB;
+    private int band_height;
+    private RenderQuality render_quality = RenderQuality.STANDARD;
+    private int supersampling = 1;
+    private PngEncoder png_encoder;
+    private GlyphSet glyph_set = GlyphSet.PETSCII;
+    //Tiles of the C64 title in the glyph atlas, looked up on the first draw.
+    private volatile GlyphTiles glyph_tiles;
 
     public Cover(String title, String author) {
         this(title, "", author);
@@ -41,8 +79,171 @@ public class Cover {
         this.cover_width = width;
         this.cover_height = height;
         cover_margin = 2;
-        cover_image = new Image(cover_width, cover_height);
+        RenderProbe probe = RenderProbe.start("processColors", width, height);
         processColors();
+        if (probe != null) {
+            probe.end(title.length(), 0, 0);
+        }
+        processText();
+    }
+
+    /**
+     * Copy of the cover at another size. Colors, C64 title and fonts families do not
+     * depend on the size and are shared with the original.
+     */
+    private Cover(Cover cover, int width, int height) {
+        this.title = cover.title;
+        this.subtitle = cover.subtitle;
+        this.author = cover.author;
+        this.cover_width = width;
+        this.cover_height = height;
+        this.cover_margin = cover.cover_margin;
+        this.base_color = cover.base_color;
+        this.shape_color = cover.shape_color;
+        this.c64_title = cover.c64_title;
+        this.title_font_family = cover.title_font_family;
+        this.subtitle_font_family = cover.subtitle_font_family;
+        this.author_font_family = cover.author_font_family;
+        this.glyph_atlas = cover.glyph_atlas;
+        this.backend = cover.backend;
+        this.parallel_artwork = cover.parallel_artwork;
+        this.artwork_cache = cover.artwork_cache;
+        this.raster_pool = cover.raster_pool;
+        this.pixel_format = cover.pixel_format;
+        this.band_height = cover.band_height;
+        this.render_quality = cover.render_quality;
+        this.supersampling = cover.supersampling;
+        this.png_encoder = cover.png_encoder;
+        this.glyph_set = cover.glyph_set;
+    }
+
+    /**
+     * @return the same cover at another size, drawn natively at that size. It draws the
+     * same pixels as a new Cover of that size, without redoing the work that does not
+     * depend on the size.
+     */
+    public Cover withSize(int width, int height) {
+        return new Cover(this, width, height);
+    }
+
+    /**
+     * Draw the artwork cells by copying pre-rasterized tiles from the given atlas
+     * instead of filling every shape. Pass null to draw the shapes directly. The tiles
+     * give the same pixels with the direct backend; with Java2D a few edge pixels may
+     * differ.
+     */
+    public void setGlyphAtlas(GlyphAtlas glyph_atlas) {
+        this.glyph_atlas = glyph_atlas;
+        glyph_tiles = null;
+    }
+
+    /**
+     * Draw the artwork with another alphabet of shapes than {@link GlyphSet#PETSCII}.
+     * The title characters without a glyph in the set are mapped to the ones it has.
+     */
+    public void setGlyphSet(GlyphSet glyph_set) {
+        this.glyph_set = glyph_set;
+        c64_title = c64Convert();
+        glyph_tiles = null;
+    }
+
+    /**
+     * Select how the raster returned by {@link #draw()} rasterizes shapes. Must be set
+     * before the first call to draw.
+     */
+    public void setBackend(Image.Backend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Take the raster returned by {@link #draw()} from the pool instead of allocating it,
+     * and give it back with {@link #release()}. {@link #save} gives it back by itself.
+     * Pass null to allocate a new raster.
+     */
+    public void setRasterPool(RasterPool raster_pool) {
+        this.raster_pool = raster_pool;
+    }
+
+    /**
+     * Select how the pixels of the raster returned by {@link #draw()} are stored. Covers
+     * are opaque, so every format gives the same pixels. Must be set before the first
+     * call to draw.
+     */
+    public void setPixelFormat(Image.PixelFormat pixel_format) {
+        this.pixel_format = pixel_format;
+    }
+
+    /**
+     * Trade speed for smooth edges, see {@link RenderQuality}. Must be set before the
+     * first call to draw.
+     */
+    public void setRenderQuality(RenderQuality render_quality) {
+        this.render_quality = render_quality;
+    }
+
+    /**
+     * Draw the cover factor times larger and average it down, for smoother edges than
+     * antialiasing gives, mostly with {@link RenderQuality#HIGH}. It takes factor² times
+     * the memory and the time, and draws every shape in place. 1, the default, draws the
+     * cover at its size, and the factor is at most {@link Image#MAX_SUPERSAMPLING}. Banded
+     * saves ignore it, only draw and saves of the whole cover are supersampled.
+     */
+    public void setSupersampling(int supersampling) {
+        if (supersampling < 1 || supersampling > Image.MAX_SUPERSAMPLING) {
+            throw new IllegalArgumentException("The supersampling factor must be between 1 and " + Image.MAX_SUPERSAMPLING);
+        }
+        this.supersampling = supersampling;
+    }
+
+    /**
+     * Encode PNGs with that encoder, for another deflate level or parallel chunks, see
+     * {@link Image#setPngEncoder}. Null, the default, encodes at level 6 on one thread.
+     * Must be set before the first call to draw.
+     */
+    public void setPngEncoder(PngEncoder png_encoder) {
+        this.png_encoder = png_encoder;
+    }
+
+    /**
+     * Save PNGs by rendering the cover in bands of that many rows, streamed to the encoder,
+     * instead of drawing it whole first. Memory then grows with the width of the cover and
+     * not its area, for poster sizes; with Java2D each band also holds the curves crossing
+     * it. The pixels are the same. 0, the default, draws the whole cover.
+     */
+    public void setBandHeight(int band_height) {
+        if (band_height < 0) {
+            throw new IllegalArgumentException("The band height must not be negative");
+        }
+        this.band_height = band_height;
+    }
+
+    /**
+     * Draw the artwork as a layer kept in the given cache, and copy it from there for
+     * every cover with the same artwork. The pixels are the same as when drawn in place.
+     * Pass null to always draw the artwork in place.
+     */
+    public void setArtworkCache(ArtworkCache artwork_cache) {
+        this.artwork_cache = artwork_cache;
+    }
+
+    /**
+     * Draw the rows of the artwork grid in parallel on the common ForkJoin pool, for
+     * covers at least {@link #PARALLEL_ARTWORK_MIN_WIDTH} wide and when the pool has more
+     * than one worker. The pixels are the same as when drawn sequentially.
+     */
+    public void setParallelArtwork(boolean parallel_artwork) {
+        this.parallel_artwork = parallel_artwork;
+    }
+
+    /**
+     * Prepare the text dependent parts that do not change with the size of the cover:
+     * the C64 version of the title used by the artwork, and the font families.
+     */
+    private void processText() {
+        c64_title = c64Convert();
+        title_font_family = selectFont(title);
+        subtitle_font_family = selectFont(subtitle);
+        author_font_family = selectFont(author);
     }
 
     /**
@@ -71,32 +272,153 @@ public class Cover {
         }
     }
 
+    /**
+     * Draw the cover at each of the sizes, see {@link #withSize}.
+     */
+    public Image[] draw(Dimension... sizes) {
+        Image[] images = new Image[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            images[i] = withSize(sizes[i].width, sizes[i].height).draw();
+        }
+        return images;
+    }
+
     public Image draw() {
-        drawBackground();
-        drawArtwork();
-        drawText();
+        if (cover_image == null) {
+            cover_image = raster_pool != null
+                    ? raster_pool.acquire(cover_width, cover_height, pixel_format, backend, render_quality)
+                    : new Image(cover_width, cover_height, backend, pixel_format, render_quality);
+            cover_image.setPngEncoder(png_encoder);
+        }
+        if (supersampling > 1) {
+            scene().render(cover_image, supersampling);
+            return cover_image;
+        }
+        cover_image.session(() -> draw(cover_image));
 
         //Return the cover Image instance.
         return cover_image;
     }
 
+    /**
+     * Give the image returned by {@link #draw()} back to the raster pool. The image must
+     * not be used afterwards; the next call to draw gets another one.
+     */
+    public void release() {
+        if (raster_pool != null) {
+            raster_pool.release(cover_image);
+        }
+        cover_image = null;
+    }
+
+    /**
+     * Describe the cover as a scene instead of rasterizing it. The scene renders to the
+     * same pixels as {@link #draw()} and can be serialized as SVG.
+     */
+    public Scene scene() {
+        Scene.Recorder recorder = Scene.recorder(cover_width, cover_height);
+        draw(recorder);
+        return recorder.build();
+    }
+
+    /**
+     * Draw the cover and write it to the file: SVG if the name ends with ".svg",
+     * PNG otherwise.
+     */
+    public void save(String filename) throws IOException {
+        if (filename.toLowerCase(Locale.ROOT).endsWith(".svg")) {
+            try (Writer writer = Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8)) {
+                scene().writeSvg(writer);
+            }
+        } else if (band_height > 0) {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(filename)), 64 * 1024)) {
+                writeBands(out);
+            }
+        } else if (raster_pool != null) {
+            try {
+                draw().save(filename);
+            } finally {
+                release();
+            }
+        } else {
+            draw().save(filename);
+        }
+    }
+
+    /**
+     * Write the cover to the sink under the name, in SVG format if the name ends with
+     * {@code .svg}, PNG otherwise.
+     */
+    public void save(CoverSink sink, String name) throws IOException {
+        sink.write(name, encode(name));
+    }
+
+    /**
+     * Draw the cover and encode it: SVG if the name ends with {@code .svg}, PNG otherwise,
+     * or when there is no name.
+     */
+    public byte[] encode(String name) throws IOException {
+        if (name != null && name.toLowerCase(Locale.ROOT).endsWith(".svg")) {
+            return scene().toSvg().getBytes(StandardCharsets.UTF_8);
+        } else if (band_height > 0) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeBands(out);
+            return out.toByteArray();
+        }
+        try {
+            return draw().toPng();
+        } finally {
+            if (raster_pool != null) {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Stream the cover as PNG, rendered band by band from its scene.
+     */
+    private void writeBands(OutputStream out) throws IOException {
+        scene().writePng(out, band_height, backend, render_quality, png_encoder != null ? png_encoder : new PngEncoder());
+    }
+
+    /**
+     * Draw every phase, each one timed by a {@link RenderProbe} when something listens.
+     */
+    private void draw(Canvas canvas) {
+        RenderProbe probe = RenderProbe.start("drawBackground", cover_width, cover_height);
+        drawBackground(canvas);
+        if (probe != null) {
+            probe.end(0, 0, 0);
+        }
+
+        probe = RenderProbe.start("drawArtwork", cover_width, cover_height);
+        drawArtwork(canvas);
+        if (probe != null) {
+            probe.end(title.length(), breakGrid().count, 0);
+        }
+
+        probe = RenderProbe.start("drawText", cover_width, cover_height);
+        drawText(canvas);
+        if (probe != null) {
+            probe.end(title.length(), 0, 0);
+        }
+    }
+
     /**
      * Fill the background of the image with white.
      */
-    private void drawBackground() {
-        cover_image.rect(0,0,cover_width,cover_height, Color.WHITE);
+    private void drawBackground(Canvas canvas) {
+        canvas.rect(0,0,cover_width,cover_height, Color.WHITE);
     }
 
     /**
      * Allocate fonts for the title and the author, and draw the text.
      */
-    private void drawText() {
+    void drawText(Canvas canvas) {
         Color fill = new Color(50, 50, 50);
 
         float title_font_size = cover_width * 0.08f;
         float subtitle_font_size = cover_width * 0.05f;
-        String title_font_family = selectFont(title);
-        String subtitle_font_family = selectFont(subtitle);
         title_font_size = scale_font(title, title_font_size);
         subtitle_font_size = scale_font(subtitle, subtitle_font_size);
 
@@ -108,39 +430,28 @@ public class Cover {
         int y = cover_height * cover_margin / 100 * 2;
         int width = cover_width - (2 * cover_height * cover_margin / 100);
         int height = title_height;
-        int[] tResult = cover_image.text(title, x, y, width, height, fill, title_font);
+        int[] tResult = canvas.text(title, x, y, width, height, fill, title_font);
         if (subtitle != null && !subtitle.isEmpty()) {
             y = (int) Math.min(
                     y + tResult[1] * tResult[0],
                     title_height - subtitle_font_size
             );
-            cover_image.text(subtitle, x, y, width, height, fill, subtitle_font);
+            canvas.text(subtitle, x, y, width, height, fill, subtitle_font);
         }
 
         float author_font_size = cover_width * 0.07f;
-        Font author_font = getFont(selectFont(author), author_font_size, false);
+        Font author_font = getFont(author_font_family, author_font_size, false);
         int author_height = (int) ((cover_height - cover_width - (cover_height * cover_margin / 100)) * 0.25);
 
         x = cover_height * cover_margin / 100;
         y = title_height;
         width = cover_width - (2 * cover_height * cover_margin / 100);
         height = author_height;
-        cover_image.text(author, x, y, width, height, fill, author_font);
+        canvas.text(author, x, y, width, height, fill, author_font);
     }
 
     public Font getFont(String family, float size, boolean bold) {
-        Map<TextAttribute, Object> attributes = new HashMap<>();
-        attributes.put(TextAttribute.FAMILY, family);
-        attributes.put(TextAttribute.SIZE, size);
-        attributes.put(TextAttribute.WIDTH, 0.68f);
-
-        if(bold) {
-            attributes.put(TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD);
-        } else {
-            attributes.put(TextAttribute.WEIGHT, TextAttribute.WEIGHT_REGULAR);
-        }
-
-        return new Font(attributes);
+        return FontCache.get(family, size, 0.68f, bold);
     }
 
     /**
@@ -149,184 +460,113 @@ public class Cover {
      * https://www.c64-wiki.com/index.php/PETSCII
      * https://en.wikipedia.org/wiki/PETSCII#/media/File:PET_Keyboard.svg
      */
-     private void drawArtwork() {
-         int artwork_start_x = 0;
+     void drawArtwork(Canvas canvas) {
          int artwork_start_y = cover_height - cover_width;
 
          Grid grid = breakGrid();
-         cover_image.rect(0, 0, cover_width, cover_height * cover_margin / 100, base_color);
-         cover_image.rect(0, artwork_start_y, cover_width, cover_width, base_color);
-         String c64_title = c64Convert();
-         List<Integer> range = IntStream.range(0, grid.total).boxed().collect(Collectors.toList());
-         List<Character> characters = cycle(c64_title, range.size());
-
-         for (int i = 0; i < range.size(); i++) {
-             int grid_x = range.get(i) % grid.count;
-             int grid_y = range.get(i) / grid.count;
-             int x = grid_x * grid.size + artwork_start_x;
-             int y = grid_y * grid.size + artwork_start_y;
-             drawShape(characters.get(i), x, y, grid.size);
+         canvas.rect(0, 0, cover_width, cover_height * cover_margin / 100, base_color);
+         //Antialiased shapes blend with what is under them, they are drawn in place.
+         if (artwork_cache != null && canvas instanceof Image && ((Image) canvas).getQuality() != RenderQuality.HIGH
+                 && artwork_cache.accepts(cover_width, cover_height)) {
+             Image image = (Image) canvas;
+             ArtworkCache.Key key = new ArtworkCache.Key(c64_title, cover_width, cover_height, grid.count, grid.size,
+                     base_color.getRGB(), shape_color.getRGB(), glyph_set, image.getBackend(), image.getQuality(),
+                     glyph_atlas != null);
+             Image cached = artwork_cache.get(key);
+             if (cached != null) {
+                 image.image(cached, 0, 0);
+                 return;
+             }
+             //Java2D rounds a shape differently at other coordinates, so the layer is as large
+             //as the cover and the grid is drawn where it would be drawn in place.
+             Image layer = new Image(cover_width, cover_height, image.getBackend(), Image.PixelFormat.ARGB, image.getQuality());
+             layer.session(() -> drawGrid(layer, grid, artwork_start_y));
+             //Compositing once before sharing the layer also computes its opaque spans.
+             image.image(layer, 0, 0);
+             artwork_cache.put(key, layer);
+             return;
          }
+         drawGrid(canvas, grid, artwork_start_y);
      }
 
-    private List<Character> cycle(String str, int size) {
-        List<Character> chars = str.chars().mapToObj(e -> (char)e).collect(Collectors.toList());
-
-        return Stream.iterate(chars.stream(), s -> chars.stream()).flatMap(Function.identity()).limit(size).collect(Collectors.toList());
-    }
-
-    /**
-     * Given an alphabetic character from the book's title string and the x, y
-     * coordinates and size of the cell within the cover grid, draw a PETSCII
-     * shape into that cell.
-     * @param c
-     * @param x
-     * @param y
-     * @param s
-     */
-    private void drawShape(char c, int x, int y, int s) {
-        int shape_thickness = 10;
-        int thick = s * shape_thickness / 100;
-
-        if (c == 'q' || c == 'Q') {
-            cover_image.ellipse(x, y, s, s, shape_color);
-        } else if (c == 'w' || c == 'W') {
-            cover_image.ellipse(x, y, s, s, shape_color);
-            cover_image.ellipse(x + thick, y + thick, s - (thick * 2), s - (thick * 2), base_color);
-        } else if (c == 'e' || c == 'E') {
-            cover_image.rect(x, y + thick, s, thick, shape_color);
-        } else if (c == 'r' || c == 'R') {
-            cover_image.rect(x, y + s - (thick * 2), s, thick, shape_color);
-        } else if (c == 't' || c == 'T') {
-            cover_image.rect(x + thick, y, thick, s, shape_color);
-        } else if (c == 'y' || c == 'Y') {
-            cover_image.rect(x + s - (thick * 2), y, thick, s, shape_color);
-        } else if (c == 'u' || c == 'U') {
-            cover_image.arc(x, y, 2 * s, 2 * s, 90, 90, shape_color, thick);
-        } else if (c == 'i' || c == 'I') {
-            cover_image.arc(x - s+thick, y, 2 * s, 2 * s, 0, 90, shape_color, thick);
-        } else if (c == 'o' || c == 'O') {
-            cover_image.rect(x, y, s, thick, shape_color);
-            cover_image.rect(x, y, thick, s, shape_color);
-        } else if (c == 'p' || c == 'P') {
-            cover_image.rect(x, y, s, thick, shape_color);
-            cover_image.rect(x + s - thick, y, thick, s, shape_color);
-        } else if (c == 'a'|| c=='A'){
-            cover_image.triangle(x, y + s, x + (s / 2), y, x + s, y + s, shape_color);
-        } else  if (c == 's'|| c=='S') {
-            cover_image.triangle(x, y, x + (s / 2), y + s, x + s, y, shape_color);
-        } else if (c == 'd'|| c=='D') {
-            cover_image.rect(x, y + (thick * 2), s, thick, shape_color);
-        } else if (c == 'f'|| c =='F') {
-            cover_image.rect(x, y + s - (thick * 3), s, thick, shape_color);
-        } else if (c == 'g' || c=='G') {
-            cover_image.rect(x + (thick * 2), y, thick, s, shape_color);
-        } else if (c == 'h'|| c=='H') {
-            cover_image.rect(x + s - (thick * 3), y, thick, s, shape_color);
-        } else if (c == 'j' || c=='J') {
-            cover_image.arc(x, y - s+thick, 2 * s, 2 * s, 180, 90, shape_color, thick);
-        } else if (c == 'k'|| c=='K') {
-            cover_image.arc(x - s+thick, y - s+thick, 2 * s, 2 * s, 270, 90, shape_color, thick);
-        } else if (c == 'l'|| c=='L') {
-            cover_image.rect(x, y, thick, s, shape_color);
-            cover_image.rect(x, y + s - thick, s, thick, shape_color);
-        } else if (c == ':') {
-            cover_image.rect(x + s - thick, y, thick, s, shape_color);
-            cover_image.rect(x, y + s - thick, s, thick, shape_color);
-        } else if (c == 'z' || c=='Z') {
-            cover_image.triangle(x, y + (s / 2), x + (s / 2), y, x + s, y + (s / 2), shape_color);
-            cover_image.triangle(x, y + (s / 2), x + (s / 2), y + s, x + s, y + (s / 2), shape_color);
-        } else if (c == 'x' || c=='X') {
-            cover_image.ellipse(x + (s / 2), y + (s / 3), thick * 2, thick * 2, shape_color);
-            cover_image.ellipse(x + (s / 3), y + s - (s / 3), thick * 2, thick * 2, shape_color);
-            cover_image.ellipse(x + s - (s / 3), y + s - (s / 3), thick * 2, thick * 2, shape_color);
-        } else if (c == 'c'|| c=='C') {
-            cover_image.rect(x, y + (thick * 3), s, thick, shape_color);
-        } else if (c == 'v'|| c=='V') {
-            cover_image.rect(x, y, s, s, shape_color);
-            cover_image.triangle(x + thick, y, x + (s / 2), y + (s / 2) - thick, x + s - thick, y, base_color);
-            cover_image.triangle(x, y + thick, x + (s / 2) - thick, y + (s / 2), x, y + s - thick, base_color);
-            cover_image.triangle(x + thick, y + s, x + (s / 2), y + (s / 2) + thick, x + s - thick, y + s, base_color);
-            cover_image.triangle(x + s, y + thick, x + s, y + s - thick, x + (s / 2) + thick, y + (s / 2), base_color);
-        } else if (c == 'b' || c=='B') {
-            cover_image.rect(x + (thick * 3), y, thick, s, shape_color);
-        } else if (c == 'n' || c=='N') {
-            cover_image.rect(x, y, s, s, shape_color);
-            cover_image.triangle(x, y, x + s - thick, y, x, y + s - thick, base_color);
-            cover_image.triangle(x + thick, y + s, x + s, y + s, x + s, y + thick, base_color);
-        } else if (c == 'm' || c=='M') {
-            cover_image.rect(x, y, s, s, shape_color);
-            cover_image.triangle(x + thick, y, x + s, y, x + s, y + s - thick, base_color);
-            cover_image.triangle(x, y + thick, x, y + s, x + s - thick, y + s, base_color);
-        } else if (c == ',') {
-            cover_image.rect(x + (s / 2), y + (s / 2), s / 2, s / 2, shape_color);
-        } else if (c == ';') {
-            cover_image.rect(x, y + (s / 2), s / 2, s / 2, shape_color);
-        } else if (c == '?') {
-            cover_image.rect(x, y, s / 2, s / 2, shape_color);
-            cover_image.rect(x + (s / 2), y + (s / 2), s / 2, s / 2, shape_color);
-        } else if (c == '<') {
-            cover_image.rect(x + (s / 2), y, s / 2, s / 2, shape_color);
-        } else if (c == '>') {
-            cover_image.rect(x, y, s / 2, s / 2, shape_color);
-        } else if (c == '@') {
-            cover_image.rect(x, y + (s / 2) - (thick / 2), s, thick, shape_color);
-        } else if (c == '[') {
-            cover_image.rect(x + (s / 2) - (thick / 2), y, thick, s, shape_color);
-        } else if (c == ']') {
-            cover_image.rect(x, y + (s / 2) - (thick / 2), s, thick, shape_color);
-            cover_image.rect(x + (s / 2) - (thick / 2), y, thick, s, shape_color);
-        } else if (c =='0') {
-            cover_image.rect(x + (s / 2) - (thick / 2), y + (s / 2) - (thick / 2), thick, s / 2 + thick / 2, shape_color);
-            cover_image.rect(x + (s / 2) - (thick / 2), y + (s / 2) - (thick / 2), s / 2 + thick / 2, thick, shape_color);
-        } else if (c =='1') {
-            cover_image.rect(x, y + (s / 2) - (thick / 2), s, thick, shape_color);
-            cover_image.rect(x + (s / 2) - (thick / 2), y, thick, s / 2 + thick / 2, shape_color);
-        } else if (c =='2') {
-            cover_image.rect(x, y + (s / 2) - (thick / 2), s, thick, shape_color);
-            cover_image.rect(x + (s / 2) - (thick / 2), y + (s / 2) - (thick / 2), thick, s / 2 + thick / 2, shape_color);
-        } else if (c =='3') {
-            cover_image.rect(x, y + (s / 2) - (thick / 2), s / 2 + thick / 2, thick, shape_color);
-            cover_image.rect(x + (s / 2) - (thick / 2), y, thick, s, shape_color);
-        } else if (c =='4') {
-            cover_image.rect(x, y, thick * 2, s, shape_color);
-        } else if (c =='5') {
-            cover_image.rect(x, y, thick * 3, s, shape_color);
-        } else if (c =='6') {
-            cover_image.rect(x + s - (thick * 3), y, thick * 3, s, shape_color);
-        } else if (c =='7') {
-            cover_image.rect(x, y, s, thick * 2, shape_color);
-        } else if (c =='8') {
-            cover_image.rect(x, y, s, thick * 3, shape_color);
-        } else if (c =='9') {
-            cover_image.rect(x, y + s - (thick * 3), s, thick * 3, shape_color);
-        } else if (c =='.') {
-            cover_image.rect(x + (s / 2) - (thick / 2), y + (s / 2) - (thick / 2), thick, s / 2 + thick / 2, shape_color);
-            cover_image.rect(x, y + (s / 2) - (thick / 2), s / 2 + thick / 2, thick, shape_color);
-        } else if (c =='=') {
-            cover_image.rect(x + (s / 2) - (thick / 2), y, thick, s / 2 + thick / 2, shape_color);
-            cover_image.rect(x, y + (s / 2) - (thick / 2), s / 2, thick, shape_color);
-        } else if (c =='-') {
-            cover_image.rect(x + (s / 2) - (thick / 2), y, thick, s / 2 + thick / 2, shape_color);
-            cover_image.rect(x + (s / 2) - (thick / 2), y + (s / 2) - (thick / 2), s / 2 + thick / 2, thick, shape_color);
-        } else if (c =='+') {
-            cover_image.rect(x + (s / 2) - (thick / 2), y + (s / 2) - (thick / 2), s / 2 + thick / 2, thick, shape_color);
-            cover_image.rect(x + (s / 2) - (thick / 2), y, thick, s, shape_color);
-        } else if (c =='*') {
-            cover_image.rect(x + s - (thick * 2), y, thick * 2, s, shape_color);
-        } else if (c =='/') {
-            cover_image.rect(x, y + s - (thick * 2), s, thick * 2, shape_color);
-        } else if (c == ' ') {
-            cover_image.rect(x, y, s, s, base_color);
+    /**
+     * Draw the artwork square with its top at artwork_start_y.
+     */
+    private void drawGrid(Canvas canvas, Grid grid, int artwork_start_y) {
+        canvas.rect(0, artwork_start_y, cover_width, cover_width, base_color);
+
+        if (parallel_artwork && cover_width >= PARALLEL_ARTWORK_MIN_WIDTH && canvas instanceof Image && grid.count > 1
+                && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            drawBands((Image) canvas, grid, artwork_start_y);
+        } else {
+            drawCells(canvas, grid, 0, grid.count, artwork_start_y);
+        }
+    }
+
+    /**
+     * Draw each row of the grid into its own band of the image, on the common pool.
+     * Arcs stroke a little past their cell, so a band also draws the rows just above
+     * and below it, clipped to its own rows: every pixel is painted in the same order
+     * as by the sequential loop.
+     */
+    private void drawBands(Image image, Grid grid, int artwork_start_y) {
+        List<ForkJoinTask<?>> bands = new ArrayList<>(grid.count);
+        for (int row = 0; row < grid.count; row++) {
+            int first = Math.max(row - 1, 0);
+            int last = Math.min(row + 2, grid.count);
+            //The first and last bands also own the pixels outside of the grid.
+            int top = row == 0 ? 0 : artwork_start_y + row * grid.size;
+            int bottom = row == grid.count - 1 ? image.getHeight() : artwork_start_y + (row + 1) * grid.size;
+            Image band = image.band(top, bottom);
+            bands.add(ForkJoinTask.adapt(() -> {
+                band.session(() -> drawCells(band, grid, first, last, artwork_start_y));
+            }));
+        }
+        ForkJoinTask.invokeAll(bands);
+    }
+
+    /**
+     * Draw the cells of the grid rows [first_row, last_row). The cells repeat the C64
+     * title; nothing is allocated per cell, and the atlas tiles of the title are only
+     * looked up by the first draw of the cover.
+     */
+    private void drawCells(Canvas canvas, Grid grid, int first_row, int last_row, int artwork_start_y) {
+        int artwork_start_x = 0;
+        int length = c64_title.length();
+        if (length == 0) {
+            return;
+        }
+        Image[] tiles = null;
+        if (glyph_atlas != null && canvas instanceof Image && ((Image) canvas).getQuality() != RenderQuality.HIGH) {
+            Image image = (Image) canvas;
+            GlyphTiles looked_up = glyph_tiles;
+            if (looked_up == null || looked_up.backend != image.getBackend() || looked_up.quality != image.getQuality()) {
+                looked_up = new GlyphTiles(glyph_atlas.tiles(glyph_set, c64_title, grid.size, base_color, shape_color,
+                        image.getBackend(), image.getQuality()), image.getBackend(), image.getQuality());
+                glyph_tiles = looked_up;
+            }
+            tiles = looked_up.tiles;
+        }
+        int pad = GlyphAtlas.padding(grid.size);
+
+        for (int i = first_row * grid.count; i < last_row * grid.count; i++) {
+            int grid_x = i % grid.count;
+            int grid_y = i / grid.count;
+            int x = grid_x * grid.size + artwork_start_x;
+            int y = grid_y * grid.size + artwork_start_y;
+            int c = i % length;
+            if (tiles != null && tiles[c] != null) {
+                ((Image) canvas).image(tiles[c], x - pad, y - pad);
+            } else {
+                glyph_set.draw(canvas, c64_title.charAt(c), x, y, grid.size, base_color, shape_color);
+            }
         }
-        //else
-        //assert not "Implement."
     }
 
     /**
      * Compute the graphics grid size based on the length of the book title.
      */
-    private Grid breakGrid() {
+    Grid breakGrid() {
         int min_title = 2;
         int max_title = 60;
         int length = _clip(title.length(), min_title, max_title);
@@ -347,12 +587,8 @@ public class Cover {
         StringBuilder c64_title = new StringBuilder();
 
         for(char c : title.toCharArray()) {
-            if (C64_LETTERS.contains(""+c)) {
-                c64_title.append(c);
-            } else {
-                //random.choice(c64_letters)
-                c64_title.append(C64_LETTERS.charAt(c % C64_LETTERS.length()));
-            }
+            //Characters without a glyph stand for random.choice(c64_letters).
+            c64_title.append(glyph_set.convert(c));
         }
         return c64_title.toString();
     }
@@ -410,6 +646,21 @@ public class Cover {
     }
 }
 
+/**
+ * The atlas tiles of a C64 title, for images of that backend and quality.
+ */
+class GlyphTiles {
+    final Image[] tiles;
+    final Image.Backend backend;
+    final RenderQuality quality;
+
+    GlyphTiles(Image[] tiles, Image.Backend backend, RenderQuality quality) {
+        this.tiles = tiles;
+        this.backend = backend;
+        this.quality = quality;
+    }
+}
+
 class Grid {
     int count;
     int total;
@@ -0,0 +1,261 @@
+package org.apoka.tenprintcover;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed on-disk cache of encoded covers. A cover is a pure function of
+ * its {@link CoverSpec#key() key}, so a stored PNG is served as is on later requests
+ * without drawing, or even loading AWT.
+ *
+ * Files are stored in a two level directory tree named after the first characters of
+ * the key ({@code ab/cd/abcd....png}). The cache keeps an index of keys and sizes in
+ * least recently used order, persisted to the {@code index} file on {@link #flush()}
+ * and {@link #close()}, and evicts the oldest entries once the total size goes past
+ * the byte budget. The index only orders the entries: opening the cache walks the
+ * directory tree, so that covers stored after the last flush of a killed process are
+ * counted again, as the most recently used, and unreadable index lines are skipped.
+ * Instances are thread safe; a cache directory must not be shared by two live instances.
+ */
+public class CoverCache implements Closeable {
+    private static final String INDEX = "index";
+    private static final String SUFFIX = ".png";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path root;
+    private final long maxBytes;
+    private final Map<String, Long> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CoverCache(Path root, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The cache size must be positive");
+        }
+        this.root = root;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(root);
+        load();
+    }
+
+    /**
+     * @return the cached PNG for the key, or null on a miss
+     */
+    public byte[] get(String key) throws IOException {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+
+        try {
+            byte[] png = Files.readAllBytes(path(key));
+            hits.incrementAndGet();
+            return png;
+        } catch (NoSuchFileException e) {
+            //Removed behind our back, forget about it.
+            synchronized (this) {
+                Long size = entries.remove(key);
+                if (size != null) {
+                    bytes -= size;
+                }
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, byte[] png) throws IOException {
+        if (png.length > maxBytes) {
+            return;
+        }
+
+        Path file = path(key);
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), key, TEMP_SUFFIX);
+        try {
+            Files.write(temp, png);
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        List<String> evicted;
+        synchronized (this) {
+            Long previous = entries.put(key, (long) png.length);
+            bytes += png.length - (previous != null ? previous : 0);
+            evicted = evict(key);
+        }
+        delete(evicted);
+    }
+
+    /**
+     * Remove the least recently used entries until the cache fits its budget.
+     * @param keep the key to keep whatever its age, or null
+     * @return the keys removed, whose files are still to be deleted
+     */
+    private List<String> evict(String keep) {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            it.remove();
+            bytes -= eldest.getValue();
+            evicted.add(eldest.getKey());
+        }
+        return evicted;
+    }
+
+    private void delete(List<String> evicted) throws IOException {
+        for (String old : evicted) {
+            Files.deleteIfExists(path(old));
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Return the cached PNG of the cover, drawing and storing it on a miss.
+     */
+    public byte[] getOrRender(CoverSpec spec) throws IOException {
+        String key = spec.key();
+        byte[] png = get(key);
+        if (png == null) {
+            png = spec.toCover().draw().toPng();
+            put(key, png);
+        }
+        return png;
+    }
+
+    private Path path(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key + SUFFIX);
+    }
+
+    private void load() throws IOException {
+        //The files on disk, the ones stored after the last flush included. Temporary files
+        //are left by puts and flushes that did not complete.
+        Map<String, Path> covers = new LinkedHashMap<>();
+        try (Stream<Path> files = Files.walk(root, 3)) {
+            List<Path> found = files
+                    .filter(Files::isRegularFile)
+                    .sorted((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()))
+                    .collect(Collectors.toList());
+            for (Path file : found) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(SUFFIX)) {
+                    String key = name.substring(0, name.length() - SUFFIX.length());
+                    if (key.length() > 4 && file.equals(path(key))) {
+                        covers.put(key, file);
+                    }
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        //Indexed covers first, in their order, then the others oldest first.
+        Path index = root.resolve(INDEX);
+        if (Files.exists(index)) {
+            try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    Path cover = space > 4 ? covers.remove(line.substring(0, space)) : null;
+                    if (cover != null) {
+                        add(line.substring(0, space), cover);
+                    }
+                }
+            } catch (CharacterCodingException e) {
+                //A corrupt index, the covers not read yet are ordered by age.
+            }
+        }
+        for (Map.Entry<String, Path> cover : covers.entrySet()) {
+            add(cover.getKey(), cover.getValue());
+        }
+        delete(evict(null));
+    }
+
+    private void add(String key, Path cover) throws IOException {
+        long size = Files.size(cover);
+        entries.put(key, size);
+        bytes += size;
+    }
+
+    /**
+     * Persist the index, least recently used entries first.
+     */
+    public synchronized void flush() throws IOException {
+        Path index = root.resolve(INDEX);
+        Path temp = root.resolve(INDEX + TEMP_SUFFIX);
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write(' ');
+                writer.write(Long.toString(entry.getValue()));
+                writer.newLine();
+            }
+        }
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cache: %d hits, %d misses, %d evictions, %d entries, %d bytes",
+                getHits(), getMisses(), getEvictions(), getEntries(), getBytes());
+    }
+}
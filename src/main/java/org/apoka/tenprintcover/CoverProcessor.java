@@ -0,0 +1,383 @@
+package org.apoka.tenprintcover;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Flow.Processor} rendering the cover specs it receives and publishing the encoded
+ * covers, as SVG when the output of the spec ends with {@code .svg} and PNG otherwise.
+ * <pre>
+ *     CoverProcessor processor = new CoverProcessor(4);
+ *     specs.subscribe(processor);
+ *     processor.subscribe(subscriber);
+ * </pre>
+ * At most {@code concurrency} covers are requested from upstream and not yet published
+ * downstream: they are rendered in parallel, and the ones rendered before the subscriber
+ * asks for them wait in the processor. Upstream therefore gets more demand only as fast
+ * as covers are rendered and consumed.
+ *
+ * Covers are published in the order they are done, each one with the position of its spec
+ * in the input. A cover that fails, even with an {@link Error}, is published with it
+ * instead of its data, and the stream goes on. The processor has a single subscriber; cancelling it cancels the
+ * upstream subscription and drops the covers not published yet.
+ */
+public class CoverProcessor implements Flow.Processor<CoverSpec, CoverProcessor.Result> {
+    private final int concurrency;
+    private final Executor executor;
+    private final boolean ownExecutor;
+    private final ArrayDeque<Result> ready = new ArrayDeque<>();
+    private RenderContext context = new RenderContext();
+    private CoverCache cache;
+
+    private Flow.Subscription upstream;
+    private boolean subscribed;
+    private Flow.Subscriber<? super Result> downstream;
+    private long demand;
+    private long requested;
+    private long received;
+    private long published;
+    private long failed;
+    private boolean upstreamDone;
+    private Throwable upstreamError;
+    private Throwable invalidRequest;
+    private boolean cancelled;
+    private boolean terminated;
+    private boolean emitting;
+
+    /**
+     * Render on threads of the processor, stopped once the stream is over.
+     */
+    public CoverProcessor(int concurrency) {
+        this(concurrency, null);
+    }
+
+    /**
+     * @param concurrency the maximum number of covers requested from upstream and not yet
+     * published, so also of covers rendered at the same time
+     * @param executor the executor running the renders, null for threads of the processor
+     */
+    public CoverProcessor(int concurrency, Executor executor) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("The concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        this.ownExecutor = executor == null;
+        this.executor = executor != null ? executor : newExecutor(concurrency);
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "cover-processor-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Render the covers with that context instead of a default one. To be set before the
+     * first spec is received.
+     */
+    public void setRenderContext(RenderContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Serve PNG covers from the cache when possible, and store the ones encoded. To be
+     * set before the first spec is received.
+     */
+    public void setCache(CoverCache cache) {
+        this.cache = cache;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return the number of covers published, failed ones included
+     */
+    public synchronized long getPublished() {
+        return published;
+    }
+
+    /**
+     * @return the number of covers that failed to render, published or not
+     */
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Result> subscriber) {
+        Objects.requireNonNull(subscriber);
+        boolean first;
+        synchronized (this) {
+            first = !subscribed;
+            subscribed = true;
+        }
+        if (!first) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A CoverProcessor has a single subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Subscription());
+        //Only published to once onSubscribe returned, it may have requested covers already.
+        synchronized (this) {
+            downstream = subscriber;
+        }
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        synchronized (this) {
+            if (upstream == null && !cancelled) {
+                upstream = subscription;
+                subscription = null;
+            }
+        }
+        if (subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(CoverSpec spec) {
+        Objects.requireNonNull(spec);
+        long sequence;
+        synchronized (this) {
+            if (cancelled || upstreamDone) {
+                return;
+            }
+            sequence = received++;
+        }
+        try {
+            executor.execute(() -> render(sequence, spec));
+        } catch (RejectedExecutionException e) {
+            done(new Result(sequence, spec, null, e));
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        Objects.requireNonNull(throwable);
+        synchronized (this) {
+            if (upstreamDone) {
+                return;
+            }
+            upstreamDone = true;
+            upstreamError = throwable;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    private void render(long sequence, CoverSpec spec) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+        }
+        Result result;
+        try {
+            result = new Result(sequence, spec, context.encode(spec, cache), null);
+        } catch (Throwable e) {
+            //Errors too: a cover never published would leave the stream waiting for it.
+            result = new Result(sequence, spec, null, e);
+        }
+        done(result);
+    }
+
+    private void done(Result result) {
+        synchronized (this) {
+            if (result.isFailed()) {
+                failed++;
+            }
+            if (cancelled) {
+                return;
+            }
+            ready.add(result);
+        }
+        drain();
+    }
+
+    /**
+     * Publish the covers the subscriber asked for, request more specs from upstream and
+     * end the stream, on one thread at a time. A thread finding another one in the loop
+     * leaves the work to it: the loop only stops once the state, which the thread changed
+     * before, leaves nothing to do.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (emitting) {
+                return;
+            }
+            emitting = true;
+        }
+        while (true) {
+            Flow.Subscriber<? super Result> subscriber;
+            Flow.Subscription source;
+            Result next = null;
+            Throwable error = null;
+            boolean invalid = false;
+            long more = 0;
+            synchronized (this) {
+                subscriber = downstream;
+                source = upstream;
+                if (cancelled || terminated || subscriber == null) {
+                    emitting = false;
+                    return;
+                }
+                if (invalidRequest != null) {
+                    invalid = true;
+                    error = invalidRequest;
+                    terminated = true;
+                    ready.clear();
+                } else if (demand > 0 && !ready.isEmpty()) {
+                    next = ready.poll();
+                    demand--;
+                    published++;
+                } else if (upstreamDone && received == published) {
+                    error = upstreamError;
+                    terminated = true;
+                } else if (source != null && !upstreamDone && requested - published < concurrency) {
+                    more = concurrency - (requested - published);
+                    requested += more;
+                } else {
+                    emitting = false;
+                    return;
+                }
+            }
+
+            if (next != null) {
+                subscriber.onNext(next);
+            } else if (more > 0) {
+                source.request(more);
+            } else {
+                if (invalid && source != null) {
+                    source.cancel();
+                }
+                shutdown();
+                if (error != null) {
+                    subscriber.onError(error);
+                } else {
+                    subscriber.onComplete();
+                }
+                return;
+            }
+        }
+    }
+
+    private void shutdown() {
+        if (ownExecutor) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    /**
+     * The subscription of the subscriber of the processor.
+     */
+    private final class Subscription implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            synchronized (CoverProcessor.this) {
+                if (n <= 0) {
+                    if (invalidRequest == null) {
+                        invalidRequest = new IllegalArgumentException("The number of covers requested must be positive, not " + n);
+                    }
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            Flow.Subscription source;
+            synchronized (CoverProcessor.this) {
+                if (cancelled || terminated) {
+                    return;
+                }
+                cancelled = true;
+                ready.clear();
+                source = upstream;
+            }
+            if (source != null) {
+                source.cancel();
+            }
+            shutdown();
+        }
+    }
+
+    /**
+     * A cover published by the processor: its encoded data, or the error it failed with.
+     */
+    public static final class Result {
+        private final long sequence;
+        private final CoverSpec spec;
+        private final byte[] data;
+        private final Throwable error;
+
+        private Result(long sequence, CoverSpec spec, byte[] data, Throwable error) {
+            this.sequence = sequence;
+            this.spec = spec;
+            this.data = data;
+            this.error = error;
+        }
+
+        /**
+         * @return the position of the spec among the ones received, from 0
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        public CoverSpec getSpec() {
+            return spec;
+        }
+
+        /**
+         * @return the PNG or SVG cover, null if it failed
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return why the cover failed, null if it did not
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isFailed() {
+            return error != null;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.apoka.tenprintcover;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal HTTP front end rendering covers on request:
+ * <pre>
+ *     GET /cover?t=TITLE&amp;a=AUTHOR[&amp;s=SUBTITLE][&amp;w=WIDTH][&amp;h=HEIGHT]
+ * </pre>
+ * Responses carry a strong ETag derived from the cover inputs, so a request whose
+ * {@code If-None-Match} matches is answered with 304 without rendering anything. At
+ * most a fixed number of covers are drawn at the same time; requests that cannot get
+ * a render slot in time, or find the queue of requests waiting for a thread full, are
+ * answered with 503 instead of queueing without bound.
+ */
+public class CoverServer {
+    public static final int MAX_DIMENSION = 4096;
+    private static final long SLOT_TIMEOUT_MILLIS = 2000;
+    /** Threads, and requests waiting for one, per concurrent render. */
+    private static final int THREADS_PER_RENDER = 4;
+    private static final int QUEUED_PER_RENDER = 4;
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore renders;
+    private final CoverCache cache;
+    private RenderContext context = new RenderContext();
+
+    /**
+     * @param port the port to listen to, 0 for any free port
+     * @param maxRenders the maximum number of covers drawn concurrently
+     * @param cache optional cache of encoded covers, may be null
+     */
+    public CoverServer(int port, int maxRenders, CoverCache cache) throws IOException {
+        if (maxRenders < 1) {
+            throw new IllegalArgumentException("At least one concurrent render is required");
+        }
+        this.renders = new Semaphore(maxRenders);
+        this.cache = cache;
+        this.executor = new ThreadPoolExecutor(maxRenders * THREADS_PER_RENDER, maxRenders * THREADS_PER_RENDER,
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxRenders * QUEUED_PER_RENDER));
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        //Exchanges are handed from the dispatcher thread to the pool, so that the ones it
+        //rejects can still be answered.
+        server.createContext("/cover", this::dispatch);
+    }
+
+    /**
+     * Render the covers with that context instead of a default one. To be set before the
+     * server is started.
+     */
+    public void setRenderContext(RenderContext context) {
+        this.context = context;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        try {
+            executor.execute(() -> handle(exchange));
+        } catch (RejectedExecutionException e) {
+            try {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, "Too many requests in progress");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                send(exchange, 405, "Method not allowed");
+                return;
+            }
+
+            CoverSpec spec;
+            try {
+                spec = parse(exchange.getRequestURI().getRawQuery());
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, e.getMessage());
+                return;
+            }
+
+            String key = context.key(spec);
+            String etag = "\"" + key + "\"";
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", etag);
+            headers.set("Cache-Control", "public, max-age=31536000, immutable");
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            byte[] png = cache != null ? cache.get(key) : null;
+            if (png == null) {
+                if (!renders.tryAcquire(SLOT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    headers.remove("ETag");
+                    headers.remove("Cache-Control");
+                    headers.set("Retry-After", "1");
+                    send(exchange, 503, "Too many covers in progress");
+                    return;
+                }
+                try {
+                    png = context.encode(spec);
+                } finally {
+                    renders.release();
+                }
+                if (cache != null) {
+                    cache.put(key, png);
+                }
+            }
+
+            headers.set("Content-Type", "image/png");
+            if (method.equals("HEAD")) {
+                headers.set("Content-Length", Integer.toString(png.length));
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, png.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(png);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(exchange, 503, "Interrupted", null);
+        } catch (Throwable e) {
+            fail(exchange, 500, "Internal server error", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answer with the error and log the cause, which is not sent to the client. Once the
+     * response is sent, failures are the client going away and are ignored.
+     */
+    private static void fail(HttpExchange exchange, int status, String message, Throwable cause) {
+        if (exchange.getResponseCode() != -1) {
+            return;
+        }
+        if (cause != null) {
+            System.err.println("Could not serve " + exchange.getRequestURI() + ":");
+            cause.printStackTrace();
+        }
+        Headers headers = exchange.getResponseHeaders();
+        headers.remove("ETag");
+        headers.remove("Cache-Control");
+        try {
+            send(exchange, status, message);
+        } catch (IOException e) {
+            //The client is gone.
+        }
+    }
+
+    static CoverSpec parse(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                String name = eq >= 0 ? pair.substring(0, eq) : pair;
+                String value = eq >= 0 ? pair.substring(eq + 1) : "";
+                params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        }
+
+        String title = params.get("t");
+        String author = params.get("a");
+        if (title == null || author == null) {
+            throw new IllegalArgumentException("Parameters t (title) and a (author) are required");
+        }
+        int width = dimension(params.get("w"), Cover.DEFAULT_WIDTH);
+        int height = dimension(params.get("h"), Cover.DEFAULT_HEIGHT);
+
+        return new CoverSpec(title, params.get("s"), author, width, height, null);
+    }
+
+    private static int dimension(String value, int fallback) {
+        if (value == null || value.isEmpty()) {
+            return fallback;
+        }
+        try {
+            int dimension = Integer.parseInt(value);
+            if (dimension > 0 && dimension <= MAX_DIMENSION) {
+                return dimension;
+            }
+        } catch (NumberFormatException e) {
+            //fall through
+        }
+        throw new IllegalArgumentException("Invalid dimension " + value + ", expected 1 to " + MAX_DIMENSION);
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.apoka.tenprintcover;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Destination of encoded covers, each stored under a name: the files of a directory or
+ * the entries of archives. Implementations can be shared between threads.
+ */
+public interface CoverSink extends Closeable {
+    /**
+     * Store the encoded cover under the name, a relative path using {@code /}.
+     */
+    void write(String name, byte[] data) throws IOException;
+
+    /**
+     * Store the encoded cover, and run {@code stored} once it is on disk for good: a
+     * resumed run can then skip it. By default that is as soon as it is written.
+     */
+    default void write(String name, byte[] data, Runnable stored) throws IOException {
+        write(name, data);
+        stored.run();
+    }
+
+    /**
+     * Complete what can be completed of the covers written so far, running their
+     * {@code stored} callbacks.
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Open the sink for a target: a ZIP or TAR archive if it ends with {@code .zip} or
+     * {@code .tar}, a directory otherwise.
+     * @param maxArchiveBytes roll over to a new archive before one grows larger than this,
+     * 0 to write a single archive. Ignored for a directory.
+     */
+    static CoverSink open(Path target, long maxArchiveBytes) throws IOException {
+        String name = target.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".zip")) {
+            return new ArchiveSink(target, ArchiveSink.Format.ZIP, maxArchiveBytes);
+        }
+        if (name.endsWith(".tar")) {
+            return new ArchiveSink(target, ArchiveSink.Format.TAR, maxArchiveBytes);
+        }
+        return new DirectorySink(target);
+    }
+}
@@ -0,0 +1,105 @@
+package org.apoka.tenprintcover;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Immutable description of a single cover to render: the book strings, the
+ * dimension of the image and the file name it should be written to.
+ */
+public class CoverSpec {
+    private final String title;
+    private final String subtitle;
+    private final String author;
+    private final int width;
+    private final int height;
+    private final String output;
+
+    public CoverSpec(String title, String subtitle, String author, String output) {
+        this(title, subtitle, author, Cover.DEFAULT_WIDTH, Cover.DEFAULT_HEIGHT, output);
+    }
+
+    public CoverSpec(String title, String subtitle, String author, int width, int height, String output) {
+        if (title == null || author == null) {
+            throw new IllegalArgumentException("title and author are required");
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid cover dimension " + width + "x" + height);
+        }
+        this.title = title;
+        this.subtitle = subtitle != null ? subtitle : "";
+        this.author = author;
+        this.width = width;
+        this.height = height;
+        this.output = output;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getSubtitle() {
+        return subtitle;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * Hex SHA-256 of everything the PNG of a plain {@link Cover} depends on: the strings,
+     * the dimension, {@link Cover#RENDERER_VERSION} and the font files loaded. Equal keys
+     * mean identical images.
+     */
+    public String key() {
+        return key(RenderContext.fonts());
+    }
+
+    /**
+     * Like {@link #key()}, for the PNG rendered with the configuration, the settings
+     * changing its bytes as given by {@link RenderContext#key}.
+     */
+    public String key(String configuration) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        String inputs = String.join("\0", Cover.RENDERER_VERSION, title, subtitle, author,
+                Integer.toString(width), Integer.toString(height));
+        if (!configuration.isEmpty()) {
+            inputs += "\0" + configuration;
+        }
+        byte[] hash = digest.digest(inputs.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    public Cover toCover() {
+        return new Cover(title, subtitle, author, width, height);
+    }
+
+    @Override
+    public String toString() {
+        return "CoverSpec{title='" + title + "', author='" + author + "', " + width + "x" + height + ", output='" + output + "'}";
+    }
+}
@@ -0,0 +1,30 @@
+package org.apoka.tenprintcover;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Sink writing each cover to its own file, resolved against a directory.
+ */
+public class DirectorySink implements CoverSink {
+    private final Path directory;
+
+    public DirectorySink(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        Path file = directory.resolve(name);
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.write(file, data);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,184 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.apoka.graphics.RenderQuality;
+
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of pre-rasterized PETSCII glyphs. A glyph only depends on its definition in the
+ * glyph set, the grid cell size, the base/shape color pair and the way it is rasterized, so
+ * each combination is drawn once into a small transparent tile and then copied into every
+ * cell that needs it.
+ *
+ * Tiles carry a transparent margin around the cell so that strokes reaching slightly
+ * past the cell edge are kept. With the direct backend the result is the same as drawing
+ * the shape in place. Java2D rounds a shape differently at other coordinates, so with it a
+ * few edge pixels of a cover may differ, see {@link RenderContext#key}. Antialiased shapes
+ * blend with what is under them and are always drawn in place.
+ *
+ * The atlas is bounded by the total size of its tiles and evicts the least recently used
+ * ones first; cells too large to keep a useful number of tiles are drawn in place. It can
+ * be shared between threads.
+ */
+public class GlyphAtlas {
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_TILE_SHARE = 64;
+
+    private final long maxBytes;
+    private final Map<Key, Image> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public GlyphAtlas() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public GlyphAtlas(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The atlas size must be positive");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Draw the glyph of the set for the character into the cell of size {@code s} at x, y.
+     */
+    public void draw(Image image, GlyphSet glyphs, char c, int x, int y, int s, Color base_color, Color shape_color) {
+        GlyphSet.Glyph glyph = glyphs.glyph(c);
+        if (glyph == null) {
+            return;
+        }
+        if (!accepts(s) || image.getQuality() == RenderQuality.HIGH) {
+            //A tile this large would churn the whole atlas, draw it in place.
+            glyph.draw(image, x, y, s, base_color, shape_color);
+            return;
+        }
+        int pad = padding(s);
+        image.image(tile(glyph, s, base_color, shape_color, image.getBackend(), image.getQuality()), x - pad, y - pad);
+    }
+
+    /**
+     * @return the tile of every character of the text, to be drawn {@link #padding} pixels
+     * above and left of the cell. Entries are null for characters without a glyph, and
+     * all of them when the cells are too large for the atlas and must be drawn in place.
+     * The tiles are rasterized like an image of that backend and quality.
+     */
+    Image[] tiles(GlyphSet glyphs, String text, int s, Color base_color, Color shape_color,
+                  Image.Backend backend, RenderQuality quality) {
+        Image[] tiles = new Image[text.length()];
+        if (!accepts(s) || quality == RenderQuality.HIGH) {
+            return tiles;
+        }
+        for (int i = 0; i < tiles.length; i++) {
+            GlyphSet.Glyph glyph = glyphs.glyph(text.charAt(i));
+            if (glyph != null) {
+                tiles[i] = tile(glyph, s, base_color, shape_color, backend, quality);
+            }
+        }
+        return tiles;
+    }
+
+    private boolean accepts(int s) {
+        int pad = padding(s);
+        return 4L * (s + 2 * pad) * (s + 2 * pad) <= maxBytes / MAX_TILE_SHARE;
+    }
+
+    private Image tile(GlyphSet.Glyph glyph, int s, Color base_color, Color shape_color,
+                       Image.Backend backend, RenderQuality quality) {
+        //Characters sharing a glyph, like both cases of a letter, share the tile.
+        Key key = new Key(glyph, s, base_color.getRGB(), shape_color.getRGB(), backend, quality);
+
+        synchronized (this) {
+            Image tile = tiles.get(key);
+            if (tile != null) {
+                hits++;
+                return tile;
+            }
+            misses++;
+        }
+
+        int pad = padding(s);
+        Image tile = new Image(s + 2 * pad, s + 2 * pad, backend, Image.PixelFormat.ARGB, quality);
+        tile.session(() -> glyph.draw(tile, pad, pad, s, base_color, shape_color));
+
+        synchronized (this) {
+            if (tiles.put(key, tile) == null) {
+                bytes += tileBytes(tile);
+            }
+            var it = tiles.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Image evicted = it.next().getValue();
+                it.remove();
+                bytes -= tileBytes(evicted);
+                evictions++;
+            }
+        }
+        return tile;
+    }
+
+    static int padding(int s) {
+        return Math.max(2, s / 10);
+    }
+
+    private static long tileBytes(Image tile) {
+        return 4L * tile.getWidth() * tile.getHeight();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private static final class Key {
+        private final GlyphSet.Glyph glyph;
+        private final int size;
+        private final int base;
+        private final int shape;
+        private final Image.Backend backend;
+        private final RenderQuality quality;
+
+        Key(GlyphSet.Glyph glyph, int size, int base, int shape, Image.Backend backend, RenderQuality quality) {
+            this.glyph = glyph;
+            this.size = size;
+            this.base = base;
+            this.shape = shape;
+            this.backend = backend;
+            this.quality = quality;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return glyph == key.glyph && size == key.size && base == key.base && shape == key.shape
+                    && backend == key.backend && quality == key.quality;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(glyph, size, base, shape, backend, quality);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Canvas;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The alphabet of shapes drawn into the cells of the artwork, one glyph per character.
+ * {@link #PETSCII} is the set of the original 10 PRINT covers; imprints can build their
+ * own and hand it to {@link Cover#setGlyphSet}.
+ *
+ * Each glyph is a list of draw operations given relative to its cell:
+ * <pre>
+ *     GlyphSet set = GlyphSet.builder()
+ *             .glyph("wW", "ellipse 0 0 s s", "base ellipse t t s-2t s-2t")
+ *             .glyph("uU", "arc 0 0 2s 2s 90 90")
+ *             .build();
+ * </pre>
+ * An operation is {@code rect x y width height}, {@code ellipse x y width height},
+ * {@code triangle x1 y1 x2 y2 x3 y3} or {@code arc x y width height start angle}, drawn in
+ * the shape color, or in the base color when prefixed with {@code base}. Arcs are stroked
+ * with the line thickness. Each coordinate adds up terms of {@code s}, the cell size,
+ * {@code t}, the line thickness (a tenth of the cell), {@code s/2}, {@code s/3}, {@code t/2}
+ * and integers, each with an optional integer factor: {@code s/2-t/2}, {@code -s+t},
+ * {@code 2t}. Divisions round down like integer divisions of the cell size.
+ *
+ * The operations are compiled once, when the set is built, and glyphs are found through a
+ * table indexed by character, so drawing a cell does not parse or compare anything.
+ * Characters of a title without a glyph are replaced by the glyph character found at
+ * their code modulo the number of characters of the set.
+ */
+public final class GlyphSet {
+    private static final int RECT = 0;
+    private static final int ELLIPSE = 1;
+    private static final int TRIANGLE = 2;
+    private static final int ARC = 3;
+    private static final String[] OPERATIONS = {"rect", "ellipse", "triangle", "arc"};
+    private static final int[] ARGUMENTS = {4, 4, 6, 6};
+    private static final String[] TERMS = {"", "s", "s/2", "s/3", "t", "t/2"};
+
+    public static final GlyphSet PETSCII = builder()
+            .glyph(" ", "base rect 0 0 s s")
+            .glyph("qQ", "ellipse 0 0 s s")
+            .glyph("wW", "ellipse 0 0 s s", "base ellipse t t s-2t s-2t")
+            .glyph("eE", "rect 0 t s t")
+            .glyph("rR", "rect 0 s-2t s t")
+            .glyph("tT", "rect t 0 t s")
+            .glyph("yY", "rect s-2t 0 t s")
+            .glyph("uU", "arc 0 0 2s 2s 90 90")
+            .glyph("iI", "arc -s+t 0 2s 2s 0 90")
+            .glyph("oO", "rect 0 0 s t", "rect 0 0 t s")
+            .glyph("pP", "rect 0 0 s t", "rect s-t 0 t s")
+            .glyph("aA", "triangle 0 s s/2 0 s s")
+            .glyph("sS", "triangle 0 0 s/2 s s 0")
+            .glyph("dD", "rect 0 2t s t")
+            .glyph("fF", "rect 0 s-3t s t")
+            .glyph("gG", "rect 2t 0 t s")
+            .glyph("hH", "rect s-3t 0 t s")
+            .glyph("jJ", "arc 0 -s+t 2s 2s 180 90")
+            .glyph("kK", "arc -s+t -s+t 2s 2s 270 90")
+            .glyph("lL", "rect 0 0 t s", "rect 0 s-t s t")
+            .glyph(":", "rect s-t 0 t s", "rect 0 s-t s t")
+            .glyph("zZ", "triangle 0 s/2 s/2 0 s s/2", "triangle 0 s/2 s/2 s s s/2")
+            .glyph("xX", "ellipse s/2 s/3 2t 2t", "ellipse s/3 s-s/3 2t 2t", "ellipse s-s/3 s-s/3 2t 2t")
+            .glyph("cC", "rect 0 3t s t")
+            .glyph("vV", "rect 0 0 s s",
+                    "base triangle t 0 s/2 s/2-t s-t 0",
+                    "base triangle 0 t s/2-t s/2 0 s-t",
+                    "base triangle t s s/2 s/2+t s-t s",
+                    "base triangle s t s s-t s/2+t s/2")
+            .glyph("bB", "rect 3t 0 t s")
+            .glyph("nN", "rect 0 0 s s", "base triangle 0 0 s-t 0 0 s-t", "base triangle t s s s s t")
+            .glyph("mM", "rect 0 0 s s", "base triangle t 0 s 0 s s-t", "base triangle 0 t 0 s s-t s")
+            .glyph(",", "rect s/2 s/2 s/2 s/2")
+            .glyph(";", "rect 0 s/2 s/2 s/2")
+            .glyph("?", "rect 0 0 s/2 s/2", "rect s/2 s/2 s/2 s/2")
+            .glyph("<", "rect s/2 0 s/2 s/2")
+            .glyph(">", "rect 0 0 s/2 s/2")
+            .glyph("@", "rect 0 s/2-t/2 s t")
+            .glyph("[", "rect s/2-t/2 0 t s")
+            .glyph("]", "rect 0 s/2-t/2 s t", "rect s/2-t/2 0 t s")
+            .glyph("1", "rect 0 s/2-t/2 s t", "rect s/2-t/2 0 t s/2+t/2")
+            .glyph("2", "rect 0 s/2-t/2 s t", "rect s/2-t/2 s/2-t/2 t s/2+t/2")
+            .glyph("3", "rect 0 s/2-t/2 s/2+t/2 t", "rect s/2-t/2 0 t s")
+            .glyph("4", "rect 0 0 2t s")
+            .glyph("5", "rect 0 0 3t s")
+            .glyph("6", "rect s-3t 0 3t s")
+            .glyph("7", "rect 0 0 s 2t")
+            .glyph("8", "rect 0 0 s 3t")
+            .glyph("9", "rect 0 s-3t s 3t")
+            .glyph("0", "rect s/2-t/2 s/2-t/2 t s/2+t/2", "rect s/2-t/2 s/2-t/2 s/2+t/2 t")
+            .glyph(".", "rect s/2-t/2 s/2-t/2 t s/2+t/2", "rect 0 s/2-t/2 s/2+t/2 t")
+            .glyph("=", "rect s/2-t/2 0 t s/2+t/2", "rect 0 s/2-t/2 s/2 t")
+            .glyph("-", "rect s/2-t/2 0 t s/2+t/2", "rect s/2-t/2 s/2-t/2 s/2+t/2 t")
+            .glyph("+", "rect s/2-t/2 s/2-t/2 s/2+t/2 t", "rect s/2-t/2 0 t s")
+            .glyph("*", "rect s-2t 0 2t s")
+            .glyph("/", "rect 0 s-2t s 2t")
+            .build();
+
+    private final String letters;
+    private final Glyph[] table;
+
+    private GlyphSet(String letters, Glyph[] table) {
+        this.letters = letters;
+        this.table = table;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return every character with a glyph, in the order they were added
+     */
+    public String getLetters() {
+        return letters;
+    }
+
+    public boolean contains(char c) {
+        return c < table.length && table[c] != null;
+    }
+
+    /**
+     * @return the character itself if it has a glyph, a character of the set otherwise
+     */
+    public char convert(char c) {
+        return contains(c) ? c : letters.charAt(c % letters.length());
+    }
+
+    /**
+     * @return the glyph of the character, null if it has none. Characters sharing a
+     * definition, like the two cases of a letter, share the same glyph.
+     */
+    Glyph glyph(char c) {
+        return c < table.length ? table[c] : null;
+    }
+
+    /**
+     * Draw the glyph of the character into the cell of size {@code s} at x, y. Characters
+     * without a glyph draw nothing.
+     */
+    public void draw(Canvas canvas, char c, int x, int y, int s, Color base_color, Color shape_color) {
+        Glyph glyph = glyph(c);
+        if (glyph != null) {
+            glyph.draw(canvas, x, y, s, base_color, shape_color);
+        }
+    }
+
+    /**
+     * The compiled operations of one glyph.
+     */
+    static final class Glyph {
+        private final int[] operations;
+        private final boolean[] base;
+        /**
+         * For each operation, the factors of every term of every coordinate, followed by
+         * the start and angle of arcs.
+         */
+        private final int[][] factors;
+
+        private Glyph(int[] operations, boolean[] base, int[][] factors) {
+            this.operations = operations;
+            this.base = base;
+            this.factors = factors;
+        }
+
+        void draw(Canvas canvas, int x, int y, int s, Color base_color, Color shape_color) {
+            int t = s * 10 / 100;
+            int s2 = s / 2;
+            int s3 = s / 3;
+            int t2 = t / 2;
+            for (int i = 0; i < operations.length; i++) {
+                int[] f = factors[i];
+                Color color = base[i] ? base_color : shape_color;
+                int x1 = x + eval(f, 0, s, s2, s3, t, t2);
+                int y1 = y + eval(f, 6, s, s2, s3, t, t2);
+                int a = eval(f, 12, s, s2, s3, t, t2);
+                int b = eval(f, 18, s, s2, s3, t, t2);
+                switch (operations[i]) {
+                    case RECT:
+                        canvas.rect(x1, y1, a, b, color);
+                        break;
+                    case ELLIPSE:
+                        canvas.ellipse(x1, y1, a, b, color);
+                        break;
+                    case TRIANGLE:
+                        canvas.triangle(x1, y1, x + a, y + b,
+                                x + eval(f, 24, s, s2, s3, t, t2), y + eval(f, 30, s, s2, s3, t, t2), color);
+                        break;
+                    default:
+                        canvas.arc(x1, y1, a, b, f[24], f[25], color, t);
+                        break;
+                }
+            }
+        }
+
+        private static int eval(int[] f, int i, int s, int s2, int s3, int t, int t2) {
+            return f[i] + f[i + 1] * s + f[i + 2] * s2 + f[i + 3] * s3 + f[i + 4] * t + f[i + 5] * t2;
+        }
+    }
+
+    public static final class Builder {
+        private final StringBuilder letters = new StringBuilder();
+        private final List<char[]> characters = new ArrayList<>();
+        private final List<Glyph> glyphs = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Add the glyph drawn for each of the characters, see {@link GlyphSet} for the
+         * syntax of the operations.
+         */
+        public Builder glyph(String characters, String... operations) {
+            if (characters.isEmpty()) {
+                throw new IllegalArgumentException("A glyph needs at least one character");
+            }
+            for (char c : characters.toCharArray()) {
+                if (letters.indexOf(String.valueOf(c)) >= 0) {
+                    throw new IllegalArgumentException("Character '" + c + "' already has a glyph");
+                }
+                letters.append(c);
+            }
+            this.characters.add(characters.toCharArray());
+            glyphs.add(compile(operations));
+            return this;
+        }
+
+        public GlyphSet build() {
+            if (letters.length() == 0) {
+                throw new IllegalArgumentException("A glyph set needs at least one glyph");
+            }
+            char max = 0;
+            for (int i = 0; i < letters.length(); i++) {
+                max = (char) Math.max(max, letters.charAt(i));
+            }
+            Glyph[] table = new Glyph[max + 1];
+            for (int i = 0; i < glyphs.size(); i++) {
+                for (char c : characters.get(i)) {
+                    table[c] = glyphs.get(i);
+                }
+            }
+            return new GlyphSet(letters.toString(), table);
+        }
+
+        private static Glyph compile(String[] operations) {
+            int[] kinds = new int[operations.length];
+            boolean[] base = new boolean[operations.length];
+            int[][] factors = new int[operations.length][];
+            for (int i = 0; i < operations.length; i++) {
+                String[] words = operations[i].trim().split("\\s+");
+                int w = 0;
+                if (words[w].equals("base")) {
+                    base[i] = true;
+                    w++;
+                }
+                int kind = w < words.length ? Arrays.asList(OPERATIONS).indexOf(words[w++]) : -1;
+                if (kind < 0 || words.length - w != ARGUMENTS[kind]) {
+                    throw new IllegalArgumentException("Invalid glyph operation '" + operations[i] + "'");
+                }
+                kinds[i] = kind;
+                int coordinates = kind == ARC ? 4 : ARGUMENTS[kind];
+                int[] f = new int[coordinates * TERMS.length + (kind == ARC ? 2 : 0)];
+                for (int j = 0; j < coordinates; j++) {
+                    parse(words[w + j], f, j * TERMS.length, operations[i]);
+                }
+                if (kind == ARC) {
+                    try {
+                        f[f.length - 2] = Integer.parseInt(words[w + 4]);
+                        f[f.length - 1] = Integer.parseInt(words[w + 5]);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid arc angles in '" + operations[i] + "'");
+                    }
+                }
+                factors[i] = f;
+            }
+            return new Glyph(kinds, base, factors);
+        }
+
+        /**
+         * Add the factors of the terms of the coordinate to f, starting at offset.
+         */
+        private static void parse(String coordinate, int[] f, int offset, String operation) {
+            int i = 0;
+            int n = coordinate.length();
+            while (i < n) {
+                int sign = 1;
+                char c = coordinate.charAt(i);
+                if (c == '+' || c == '-') {
+                    sign = c == '-' ? -1 : 1;
+                    i++;
+                } else if (i > 0) {
+                    throw invalid(coordinate, operation);
+                }
+                int start = i;
+                while (i < n && Character.isDigit(coordinate.charAt(i))) {
+                    i++;
+                }
+                int factor = start < i ? Integer.parseInt(coordinate.substring(start, i)) : 1;
+                String term = "";
+                if (i < n && (coordinate.charAt(i) == 's' || coordinate.charAt(i) == 't')) {
+                    int end = i + 1;
+                    if (end + 1 < n && coordinate.charAt(end) == '/' && Character.isDigit(coordinate.charAt(end + 1))) {
+                        end += 2;
+                    }
+                    term = coordinate.substring(i, end);
+                    i = end;
+                } else if (start == i) {
+                    throw invalid(coordinate, operation);
+                }
+                int index = Arrays.asList(TERMS).indexOf(term);
+                if (index < 0) {
+                    throw invalid(coordinate, operation);
+                }
+                f[offset + index] += sign * factor;
+            }
+            if (n == 0) {
+                throw invalid(coordinate, operation);
+            }
+        }
+
+        private static IllegalArgumentException invalid(String coordinate, String operation) {
+            return new IllegalArgumentException("Invalid coordinate '" + coordinate + "' in '" + operation + "'");
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package org.apoka.tenprintcover;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming reader for batch manifests. Two formats are accepted, chosen by the
+ * file extension:
+ * <ul>
+ *     <li>JSONL ({@code .jsonl}, {@code .ndjson}, {@code .json}): one flat object per line
+ *     with the keys {@code title}, {@code subtitle}, {@code author}, {@code output} and
+ *     optionally {@code width} and {@code height}, from 1 to {@value #MAX_DIMENSION}.</li>
+ *     <li>CSV (anything else): a header row naming the same columns, followed by one
+ *     cover per line. Fields may be double-quoted; quoted fields cannot span lines.</li>
+ * </ul>
+ * Entries are numbered by their position in the manifest, starting at 0 and ignoring
+ * the CSV header and blank lines, so the numbering is stable across runs and can be used
+ * for sharding and checkpoints. A malformed line does not stop the reader, it yields an
+ * entry carrying the parse error instead of a spec.
+ */
+public class Manifest implements Iterator<Manifest.Entry>, Closeable {
+    /**
+     * Largest width or height of a cover, poster sizes included. Larger ones would not
+     * fit in memory and fail the whole run instead of their entry.
+     */
+    public static final int MAX_DIMENSION = 16384;
+    private final BufferedReader reader;
+    private final boolean jsonl;
+    private String[] header;
+    private long ordinal;
+    private Entry next;
+
+    public static class Entry {
+        private final long ordinal;
+        private final CoverSpec spec;
+        private final String error;
+
+        Entry(long ordinal, CoverSpec spec, String error) {
+            this.ordinal = ordinal;
+            this.spec = spec;
+            this.error = error;
+        }
+
+        public long getOrdinal() {
+            return ordinal;
+        }
+
+        /**
+         * @return the parsed cover, or null if the line could not be parsed
+         */
+        public CoverSpec getSpec() {
+            return spec;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private Manifest(BufferedReader reader, boolean jsonl) {
+        this.reader = reader;
+        this.jsonl = jsonl;
+    }
+
+    public static Manifest open(Path path) throws IOException {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        boolean jsonl = name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json");
+
+        return new Manifest(Files.newBufferedReader(path, StandardCharsets.UTF_8), jsonl);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = readEntry();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Entry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Entry entry = next;
+        next = null;
+        return entry;
+    }
+
+    private Entry readEntry() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (!jsonl && header == null) {
+                    header = parseCsv(line).toArray(new String[0]);
+                    for (int i = 0; i < header.length; i++) {
+                        header[i] = header[i].trim().toLowerCase(Locale.ROOT);
+                    }
+                    continue;
+                }
+
+                long current = ordinal++;
+                try {
+                    Map<String, String> fields = jsonl ? parseJson(line) : toFields(parseCsv(line));
+                    return new Entry(current, toSpec(fields), null);
+                } catch (IllegalArgumentException e) {
+                    return new Entry(current, null, e.getMessage());
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Map<String, String> toFields(List<String> values) {
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < header.length && i < values.size(); i++) {
+            fields.put(header[i], values.get(i));
+        }
+        return fields;
+    }
+
+    private static CoverSpec toSpec(Map<String, String> fields) {
+        String output = fields.get("output");
+        if (output == null || output.isEmpty()) {
+            throw new IllegalArgumentException("Missing output");
+        }
+
+        return new CoverSpec(
+                required(fields, "title"),
+                fields.get("subtitle"),
+                required(fields, "author"),
+                dimension(fields, "width", Cover.DEFAULT_WIDTH),
+                dimension(fields, "height", Cover.DEFAULT_HEIGHT),
+                output
+        );
+    }
+
+    private static String required(Map<String, String> fields, String key) {
+        String value = fields.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + key);
+        }
+        return value;
+    }
+
+    private static int dimension(Map<String, String> fields, String key, int fallback) {
+        String value = fields.get(key);
+        if (value == null || value.isBlank()) {
+            return fallback;
+        }
+        try {
+            int dimension = Integer.parseInt(value.trim());
+            if (dimension > 0 && dimension <= MAX_DIMENSION) {
+                return dimension;
+            }
+        } catch (NumberFormatException e) {
+            //fall through
+        }
+        throw new IllegalArgumentException("Invalid " + key + ": " + value + ", expected 1 to " + MAX_DIMENSION);
+    }
+
+    /**
+     * Split a CSV line into its fields, honouring double quotes and "" escapes.
+     */
+    static List<String> parseCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        values.add(field.toString());
+
+        return values;
+    }
+
+    /**
+     * Parse a flat JSON object whose values are strings, numbers, booleans or null.
+     * Nested objects and arrays are rejected.
+     */
+    static Map<String, String> parseJson(String line) {
+        Map<String, String> fields = new HashMap<>();
+        int[] pos = {skipSpaces(line, 0)};
+
+        expect(line, pos, '{');
+        if (peek(line, pos) == '}') {
+            pos[0]++;
+            return fields;
+        }
+        while (true) {
+            String key = readString(line, pos);
+            expect(line, pos, ':');
+            String value;
+            char c = peek(line, pos);
+            if (c == '"') {
+                value = readString(line, pos);
+            } else {
+                int start = pos[0];
+                while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0) {
+                    pos[0]++;
+                }
+                value = line.substring(start, pos[0]);
+                if (value.isEmpty() || c == '{' || c == '[') {
+                    throw new IllegalArgumentException("Unsupported value for " + key);
+                }
+                if (value.equals("null")) {
+                    value = null;
+                }
+            }
+            fields.put(key, value);
+
+            c = peek(line, pos);
+            pos[0]++;
+            if (c == '}') {
+                return fields;
+            } else if (c != ',') {
+                throw new IllegalArgumentException("Malformed JSON at column " + pos[0]);
+            }
+        }
+    }
+
+    private static String readString(String line, int[] pos) {
+        expect(line, pos, '"');
+        StringBuilder value = new StringBuilder();
+        int i = pos[0];
+
+        while (i < line.length()) {
+            char c = line.charAt(i++);
+            if (c == '"') {
+                pos[0] = i;
+                return value.toString();
+            } else if (c == '\\' && i < line.length()) {
+                char e = line.charAt(i++);
+                switch (e) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (i + 4 > line.length()) {
+                            throw new IllegalArgumentException("Malformed unicode escape");
+                        }
+                        value.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                        i += 4;
+                        break;
+                    default: value.append(e);
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string");
+    }
+
+    private static void expect(String line, int[] pos, char expected) {
+        if (peek(line, pos) != expected) {
+            throw new IllegalArgumentException("Expected '" + expected + "' at column " + pos[0]);
+        }
+        pos[0]++;
+    }
+
+    private static char peek(String line, int[] pos) {
+        pos[0] = skipSpaces(line, pos[0]);
+        return pos[0] < line.length() ? line.charAt(pos[0]) : '\0';
+    }
+
+    private static int skipSpaces(String line, int pos) {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,234 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.BundledFonts;
+import org.apoka.graphics.Image;
+import org.apoka.graphics.PngEncoder;
+import org.apoka.graphics.RasterPool;
+import org.apoka.graphics.RenderQuality;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * How covers are rendered, and the atlas, artwork cache and raster pool their renders
+ * share. Batch mode, the pipeline, the server and the processor configure every cover
+ * through one, so the same options give the same bytes whichever renders them, and the
+ * cached covers are keyed on {@link #key}.
+ * <pre>
+ *     RenderContext context = new RenderContext();
+ *     context.setRenderQuality(RenderQuality.DRAFT);
+ *     byte[] png = context.encode(spec, cache);
+ * </pre>
+ * It is configured before the first render, and can then be shared between threads.
+ */
+public class RenderContext {
+    private GlyphAtlas glyphAtlas = new GlyphAtlas();
+    private ArtworkCache artworkCache = new ArtworkCache();
+    private RasterPool rasterPool = new RasterPool();
+    private Image.Backend backend = Image.Backend.JAVA2D;
+    private RenderQuality renderQuality = RenderQuality.STANDARD;
+    private int supersampling = 1;
+    private int bandHeight;
+    private PngEncoder pngEncoder;
+
+    /**
+     * See {@link Cover#setGlyphAtlas}, null to draw the shapes directly. Only covers on the
+     * direct backend use it, whose tiles give the same pixels as shapes drawn in place.
+     */
+    public void setGlyphAtlas(GlyphAtlas glyphAtlas) {
+        this.glyphAtlas = glyphAtlas;
+    }
+
+    /**
+     * See {@link Cover#setArtworkCache}, null to always draw the artwork in place.
+     */
+    public void setArtworkCache(ArtworkCache artworkCache) {
+        this.artworkCache = artworkCache;
+    }
+
+    /**
+     * See {@link Cover#setRasterPool}, null to allocate every raster.
+     */
+    public void setRasterPool(RasterPool rasterPool) {
+        this.rasterPool = rasterPool;
+    }
+
+    public void setBackend(Image.Backend backend) {
+        this.backend = backend;
+    }
+
+    public void setRenderQuality(RenderQuality renderQuality) {
+        this.renderQuality = renderQuality;
+    }
+
+    /**
+     * See {@link Cover#setSupersampling}. Banded saves are not supersampled, so a factor
+     * above 1 cannot be combined with a band height.
+     */
+    public void setSupersampling(int supersampling) {
+        if (supersampling < 1 || supersampling > Image.MAX_SUPERSAMPLING) {
+            throw new IllegalArgumentException("The supersampling factor must be between 1 and " + Image.MAX_SUPERSAMPLING);
+        }
+        if (supersampling > 1 && bandHeight > 0) {
+            throw new IllegalStateException("Supersampling cannot be combined with a band height");
+        }
+        this.supersampling = supersampling;
+    }
+
+    /**
+     * See {@link Cover#setBandHeight}. Cannot be combined with supersampling.
+     */
+    public void setBandHeight(int bandHeight) {
+        if (bandHeight < 0) {
+            throw new IllegalArgumentException("The band height must not be negative");
+        }
+        if (bandHeight > 0 && supersampling > 1) {
+            throw new IllegalStateException("Supersampling cannot be combined with a band height");
+        }
+        this.bandHeight = bandHeight;
+    }
+
+    /**
+     * See {@link Cover#setPngEncoder}, null for the default encoder.
+     */
+    public void setPngEncoder(PngEncoder pngEncoder) {
+        this.pngEncoder = pngEncoder;
+    }
+
+    public GlyphAtlas getGlyphAtlas() {
+        return glyphAtlas;
+    }
+
+    public ArtworkCache getArtworkCache() {
+        return artworkCache;
+    }
+
+    public RasterPool getRasterPool() {
+        return rasterPool;
+    }
+
+    public Image.Backend getBackend() {
+        return backend;
+    }
+
+    public RenderQuality getRenderQuality() {
+        return renderQuality;
+    }
+
+    public int getSupersampling() {
+        return supersampling;
+    }
+
+    public int getBandHeight() {
+        return bandHeight;
+    }
+
+    public PngEncoder getPngEncoder() {
+        return pngEncoder;
+    }
+
+    /**
+     * @return the cover of the spec, configured by this context
+     */
+    public Cover cover(CoverSpec spec) {
+        return configure(spec.toCover());
+    }
+
+    /**
+     * Configure the cover, and the ones it is copied to with {@link Cover#withSize}.
+     * Covers are opaque, so their rasters are stored without alpha.
+     * @return the cover
+     */
+    public Cover configure(Cover cover) {
+        cover.setGlyphAtlas(backend == Image.Backend.DIRECT ? glyphAtlas : null);
+        cover.setArtworkCache(artworkCache);
+        cover.setRasterPool(rasterPool);
+        cover.setPixelFormat(Image.PixelFormat.RGB);
+        cover.setBackend(backend);
+        cover.setRenderQuality(renderQuality);
+        cover.setSupersampling(supersampling);
+        cover.setBandHeight(bandHeight);
+        cover.setPngEncoder(pngEncoder);
+        return cover;
+    }
+
+    /**
+     * Render the cover of the spec, see {@link Cover#encode}.
+     */
+    public byte[] encode(CoverSpec spec) throws IOException {
+        return cover(spec).encode(spec.getOutput());
+    }
+
+    /**
+     * Render the cover of the spec, or take its PNG from the cache and store it there
+     * after a miss. SVG covers are not cached.
+     * @param cache the cache, or null
+     */
+    public byte[] encode(CoverSpec spec, CoverCache cache) throws IOException {
+        if (cache == null || isSvg(spec.getOutput())) {
+            return encode(spec);
+        }
+        String key = key(spec);
+        byte[] png = cache.get(key);
+        if (png == null) {
+            png = encode(spec);
+            cache.put(key, png);
+        }
+        return png;
+    }
+
+    /**
+     * @return the key of the PNG of the spec rendered by this context, see
+     * {@link CoverSpec#key(String)}
+     */
+    public String key(CoverSpec spec) {
+        return spec.key(configuration());
+    }
+
+    /**
+     * @return the settings changing the bytes of a PNG, only the fonts for those of a
+     * plain {@link Cover}
+     */
+    String configuration() {
+        List<String> settings = new ArrayList<>();
+        String fonts = fonts();
+        if (!fonts.isEmpty()) {
+            settings.add(fonts);
+        }
+        if (backend != Image.Backend.JAVA2D) {
+            settings.add("backend=" + backend);
+        }
+        if (renderQuality != RenderQuality.STANDARD) {
+            settings.add("quality=" + renderQuality);
+        }
+        PngEncoder plain = new PngEncoder();
+        if (pngEncoder != null && (pngEncoder.getLevel() != plain.getLevel() || pngEncoder.isParallel())) {
+            settings.add("png=" + pngEncoder.getLevel() + (pngEncoder.isParallel() ? ",parallel" : ""));
+        }
+        //Banded saves are encoded without a palette.
+        if (bandHeight > 0) {
+            settings.add("banded");
+        }
+        if (supersampling > 1) {
+            settings.add("supersampling=" + supersampling);
+        }
+        return String.join(";", settings);
+    }
+
+    /**
+     * @return the font files every cover is drawn with, empty with the system fonts
+     */
+    static String fonts() {
+        String source = BundledFonts.getSource();
+        return source.isEmpty() ? "" : "fonts=" + source;
+    }
+
+    /**
+     * @return true if the cover is written as SVG under that name
+     */
+    public static boolean isSvg(String output) {
+        return output != null && output.toLowerCase(Locale.ROOT).endsWith(".svg");
+    }
+}
@@ -0,0 +1,456 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Render covers in three stages, each on its own threads: draw, encode and write.
+ * <pre>
+ *     submit → [queue] → draw → [queue] → encode → [queue] → write
+ * </pre>
+ * The stages are connected by bounded queues: a stage blocks when the queue of the next
+ * one is full, up to {@link #submit} which then blocks the producer, so a slow disk
+ * throttles the encoders and the encoders throttle the renderers instead of piling up
+ * rasters in memory.
+ *
+ * Each stage reports the depth of its input queue and its utilization, the share of the
+ * time its threads spent working rather than waiting for input or for room downstream:
+ * a stage always at its queue capacity and near 100% is the one to give threads to.
+ * <pre>
+ *     try (RenderPipeline pipeline = new RenderPipeline(3, 1, 1, 8, sink, listener)) {
+ *         pipeline.submit(1, spec);
+ *         ...
+ *     }
+ * </pre>
+ * Closing the pipeline waits until every submitted cover has gone through all stages.
+ * A cover failing in a stage, even with an {@link Error}, gives back its raster and is
+ * reported to the listener while the stage goes on; the first error is thrown again
+ * by the close.
+ */
+public class RenderPipeline implements AutoCloseable {
+    /**
+     * Told of the outcome of every cover, on the thread of the stage that finished or
+     * failed it.
+     */
+    public interface Listener {
+        void written(long id, CoverSpec spec);
+
+        /**
+         * The cover is stored for good, see {@link CoverSink#write(String, byte[], Runnable)}.
+         * That may be after it was written, on the thread writing another cover or
+         * flushing the sink.
+         */
+        default void stored(long id, CoverSpec spec) {
+        }
+
+        void failed(long id, CoverSpec spec, Throwable e);
+    }
+
+    /**
+     * Marks the end of the input of a stage, one per thread.
+     */
+    private static final Job END = new Job(-1, null);
+
+    private final Stage draw;
+    private final Stage encode;
+    private final Stage write;
+    private final List<Stage> stages;
+    private final CoverSink sink;
+    private final Listener listener;
+    private RenderContext context = new RenderContext();
+    private CoverCache cache;
+    private long start;
+    private long end;
+    private volatile Error error;
+
+    /**
+     * @param capacity the size of the queue in front of each stage
+     * @param sink the sink receiving the covers, null to write them to the files named by
+     * their output. It is neither flushed nor closed by the pipeline.
+     */
+    public RenderPipeline(int drawThreads, int encodeThreads, int writeThreads, int capacity,
+                          CoverSink sink, Listener listener) {
+        if (drawThreads < 1 || encodeThreads < 1 || writeThreads < 1) {
+            throw new IllegalArgumentException("Every stage needs at least one thread");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The queue capacity must be positive");
+        }
+        this.sink = sink;
+        this.listener = listener;
+        draw = new Stage("draw", drawThreads, capacity);
+        encode = new Stage("encode", encodeThreads, capacity);
+        write = new Stage("write", writeThreads, capacity);
+        stages = Collections.unmodifiableList(Arrays.asList(draw, encode, write));
+    }
+
+    /**
+     * Parse the threads of the stages given as {@code draw,encode,write}.
+     * @return {@code {draw, encode, write}}
+     */
+    public static int[] parseStages(String stages) {
+        String[] parts = stages.split(",");
+        try {
+            if (parts.length == 3) {
+                int[] threads = new int[3];
+                for (int i = 0; i < 3; i++) {
+                    threads[i] = Integer.parseInt(parts[i].trim());
+                    if (threads[i] < 1) {
+                        throw new NumberFormatException();
+                    }
+                }
+                return threads;
+            }
+        } catch (NumberFormatException e) {
+            //fall through
+        }
+        throw new IllegalArgumentException("Invalid stages '" + stages + "', expected draw,encode,write thread counts of at least 1");
+    }
+
+    /**
+     * Render the covers with that context instead of a default one. To be set before the
+     * first cover is submitted.
+     */
+    public void setRenderContext(RenderContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Serve PNG covers from the cache when possible, and store the ones encoded. To be
+     * set before the first cover is submitted.
+     */
+    public void setCache(CoverCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Queue a cover, blocking while the draw stage is full.
+     * @param id passed back to the listener
+     */
+    public void submit(long id, CoverSpec spec) throws InterruptedException {
+        synchronized (this) {
+            if (end != 0) {
+                throw new IllegalStateException("The pipeline is closed");
+            }
+            if (start == 0) {
+                begin();
+            }
+        }
+        draw.queue.put(new Job(id, spec));
+    }
+
+    private void begin() {
+        start = System.nanoTime();
+        draw.start(this::draw, encode);
+        encode.start(this::encode, write);
+        write.start(this::write, null);
+    }
+
+    /**
+     * Wait for every submitted cover to be written, then stop the threads. If the caller
+     * is interrupted meanwhile, the covers still queued are dropped instead, their rasters
+     * given back, and the interrupt status is set again.
+     * @throws Error the first error a stage failed a cover with
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (end != 0) {
+                return;
+            }
+            if (start == 0) {
+                start = System.nanoTime();
+                end = start;
+                return;
+            }
+        }
+        //A stage is only told to stop once every thread of the one before it is done,
+        //so that nothing is put in its queue after the end markers.
+        try {
+            for (Stage stage : stages) {
+                stage.finish();
+            }
+        } catch (InterruptedException e) {
+            abort();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            end = System.nanoTime();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Stop the threads of every stage once done with their current cover, and drop the
+     * queued covers.
+     */
+    private void abort() {
+        for (Stage stage : stages) {
+            for (Thread worker : stage.workers) {
+                worker.interrupt();
+            }
+        }
+        for (Stage stage : stages) {
+            for (Thread worker : stage.workers) {
+                while (worker.isAlive()) {
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        //the interrupt status is set again by the close
+                    }
+                }
+            }
+        }
+        for (Stage stage : stages) {
+            for (Job job = stage.queue.poll(); job != null; job = stage.queue.poll()) {
+                release(job);
+            }
+        }
+    }
+
+    private void draw(Job job) throws IOException {
+        String output = job.spec.getOutput();
+        boolean svg = RenderContext.isSvg(output);
+        if (cache != null && !svg) {
+            String key = context.key(job.spec);
+            job.data = cache.get(key);
+            if (job.data != null) {
+                return;
+            }
+            job.key = key;
+        }
+
+        Cover cover = context.cover(job.spec);
+        //Banded covers are encoded while they are drawn.
+        if (svg || context.getBandHeight() > 0) {
+            job.data = cover.encode(output);
+            return;
+        }
+        //Given back by the encode stage, or by the stage thread if the draw fails.
+        job.cover = cover;
+        job.image = cover.draw();
+    }
+
+    private void encode(Job job) throws IOException {
+        if (job.cover != null) {
+            try {
+                job.data = job.image.toPng();
+            } finally {
+                release(job);
+            }
+        }
+        if (job.key != null) {
+            cache.put(job.key, job.data);
+        }
+    }
+
+    private void write(Job job) throws IOException {
+        Runnable stored = () -> listener.stored(job.id, job.spec);
+        if (sink != null) {
+            sink.write(job.spec.getOutput(), job.data, stored);
+        } else {
+            Files.write(Paths.get(job.spec.getOutput()), job.data);
+            stored.run();
+        }
+        job.data = null;
+        listener.written(job.id, job.spec);
+    }
+
+    /**
+     * Give the raster of the cover back, if the job still holds it.
+     */
+    private static void release(Job job) {
+        if (job != null && job.cover != null) {
+            job.cover.release();
+            job.cover = null;
+            job.image = null;
+        }
+    }
+
+    /**
+     * @return the draw, encode and write stages
+     */
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    /**
+     * @return the time since the first cover was submitted, up to the close
+     */
+    public synchronized long getElapsedNanos() {
+        if (start == 0) {
+            return 0;
+        }
+        return (end != 0 ? end : System.nanoTime()) - start;
+    }
+
+    public void print(PrintStream out) {
+        long elapsed = getElapsedNanos();
+        out.printf("%-8s %7s %10s %10s %8s %8s %8s%n", "stage", "threads", "processed", "failed", "queue", "busy", "blocked");
+        for (Stage stage : stages) {
+            out.printf("%-8s %7d %10d %10d %4d/%-3d %7.1f%% %7.1f%%%n", stage.name, stage.threads,
+                    stage.getProcessed(), stage.getFailed(), stage.getQueueDepth(), stage.getQueueCapacity(),
+                    100 * stage.getUtilization(elapsed), 100 * stage.getBlocked(elapsed));
+        }
+    }
+
+    private interface Step {
+        void run(Job job) throws Exception;
+    }
+
+    /**
+     * A cover on its way through the stages.
+     */
+    private static final class Job {
+        final long id;
+        final CoverSpec spec;
+        /** The key to cache the PNG under once encoded, null if it is not cached. */
+        String key;
+        Cover cover;
+        Image image;
+        byte[] data;
+
+        Job(long id, CoverSpec spec) {
+            this.id = id;
+            this.spec = spec;
+        }
+    }
+
+    /**
+     * A stage: its input queue, its threads and what they did.
+     */
+    public final class Stage {
+        private final String name;
+        private final int threads;
+        private final BlockingQueue<Job> queue;
+        private final List<Thread> workers = new ArrayList<>();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+
+        private Stage(String name, int threads, int capacity) {
+            this.name = name;
+            this.threads = threads;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        private void start(Step step, Stage next) {
+            for (int i = 0; i < threads; i++) {
+                Thread worker = new Thread(() -> work(step, next), "cover-" + name + "-" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+        }
+
+        private void work(Step step, Stage next) {
+            Job job = null;
+            try {
+                while (true) {
+                    job = queue.take();
+                    if (job == END) {
+                        return;
+                    }
+                    long t0 = System.nanoTime();
+                    try {
+                        step.run(job);
+                    } catch (Throwable e) {
+                        busyNanos.addAndGet(System.nanoTime() - t0);
+                        failed.incrementAndGet();
+                        release(job);
+                        if (e instanceof Error && error == null) {
+                            error = (Error) e;
+                        }
+                        listener.failed(job.id, job.spec, e);
+                        continue;
+                    }
+                    long t1 = System.nanoTime();
+                    busyNanos.addAndGet(t1 - t0);
+                    processed.incrementAndGet();
+                    if (next != null) {
+                        next.queue.put(job);
+                        blockedNanos.addAndGet(System.nanoTime() - t1);
+                    }
+                    job = null;
+                }
+            } catch (InterruptedException e) {
+                release(job);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void finish() throws InterruptedException {
+            for (int i = 0; i < threads; i++) {
+                queue.put(END);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * @return the number of covers waiting for a thread of the stage
+         */
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        public int getQueueCapacity() {
+            return queue.size() + queue.remainingCapacity();
+        }
+
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return the share of the time of the threads of the stage spent working on
+         * covers, between 0 and 1
+         */
+        public double getUtilization() {
+            return getUtilization(getElapsedNanos());
+        }
+
+        private double getUtilization(long elapsed) {
+            return elapsed > 0 ? (double) busyNanos.get() / (elapsed * threads) : 0;
+        }
+
+        /**
+         * @return the share of the time of the threads of the stage spent waiting for room
+         * in the queue of the next stage, between 0 and 1
+         */
+        public double getBlocked() {
+            return getBlocked(getElapsedNanos());
+        }
+
+        private double getBlocked(long elapsed) {
+            return elapsed > 0 ? (double) blockedNanos.get() / (elapsed * threads) : 0;
+        }
+    }
+}
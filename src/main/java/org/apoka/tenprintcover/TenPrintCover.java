@@ -1,25 +1,95 @@
 package org.apoka.tenprintcover;
 
+import org.apoka.graphics.BundledFonts;
 import org.apoka.graphics.Image;
+import org.apoka.graphics.PngEncoder;
+import org.apoka.graphics.RenderProbe;
+import org.apoka.graphics.RenderQuality;
+import org.apoka.graphics.RenderStats;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import java.awt.*;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
 
 public class TenPrintCover {
-    @Option(name = "-t", usage = "Book title", required = true, metaVar = "TITLE")
+    @Option(name = "-t", usage = "Book title", metaVar = "TITLE")
     String title;
 
     @Option(name = "-s", usage = "Book subtitle", metaVar = "SUBTITLE")
     String subtitle;
 
-    @Option(name = "-a", usage = "Author(s) of the book", required = true, metaVar = "AUTHOR")
+    @Option(name = "-a", usage = "Author(s) of the book", metaVar = "AUTHOR")
     String author;
 
-    @Option(name = "-o", usage = "Filename of the cover image in PNG format", required = true, metaVar = "FILE")
+    @Option(name = "-o", usage = "Filename of the cover image, in SVG format if it ends with .svg, PNG otherwise", metaVar = "FILE")
     String outfile;
 
+    @Option(name = "--sizes", usage = "Comma separated sizes to render the cover at, each written to FILE with a -WxH suffix", metaVar = "WxH,...")
+    String sizes;
+
+    @Option(name = "-m", aliases = "--manifest", usage = "Render every cover of a CSV or JSONL manifest", metaVar = "MANIFEST")
+    String manifest;
+
+    @Option(name = "-j", aliases = "--threads", usage = "Number of worker threads in batch mode", metaVar = "N")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "--stages", usage = "Render a manifest in a pipeline with that many draw, encode and write threads, instead of -j workers", metaVar = "D,E,W")
+    String stages;
+
+    @Option(name = "--shard", usage = "Render only shard i of n of the manifest", metaVar = "i/n")
+    String shard = "0/1";
+
+    @Option(name = "--serve", usage = "Serve covers over HTTP on the port, at /cover?t=..&a=..&s=..&w=..&h=..", metaVar = "PORT")
+    Integer port;
+
+    @Option(name = "--max-renders", usage = "Maximum number of covers drawn concurrently by the server", metaVar = "N")
+    int maxRenders = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "--cache", usage = "Directory of the rendered covers cache", metaVar = "DIR")
+    String cacheDir;
+
+    @Option(name = "--cache-size", usage = "Size budget of the covers cache in megabytes", metaVar = "MB")
+    long cacheSize = 1024;
+
+    @Option(name = "--checkpoint", usage = "File recording rendered manifest entries, used to resume a batch", metaVar = "FILE")
+    String checkpoint;
+
+    @Option(name = "--target", usage = "Directory, .zip or .tar archive receiving the covers of a manifest, under their output name", metaVar = "TARGET")
+    String target;
+
+    @Option(name = "--archive-size", usage = "Roll over to a new archive before one grows larger than this, 0 for a single archive that cannot be resumed", metaVar = "MB")
+    long archiveSize;
+
+    @Option(name = "--band-height", usage = "Render PNG covers in bands of that many rows streamed to the file, to bound the memory used by huge sizes", metaVar = "ROWS")
+    int bandHeight;
+
+    @Option(name = "--quality", usage = "DRAFT for fast previews without antialiasing, STANDARD, or HIGH for antialiased shapes", metaVar = "QUALITY")
+    RenderQuality quality = RenderQuality.STANDARD;
+
+    @Option(name = "--supersampling", usage = "Draw the cover N times larger and average it down, with --quality HIGH for the smoothest edges, not with --band-height", metaVar = "N")
+    int supersampling = 1;
+
+    @Option(name = "--png-level", usage = "Deflate level of the PNGs, from 0 (fastest, largest) to 9 (slowest, smallest)", metaVar = "N")
+    int pngLevel = 6;
+
+    @Option(name = "--png-parallel", usage = "Deflate large PNGs in chunks on every core")
+    boolean pngParallel;
+
+    @Option(name = "--fonts", usage = "Directory of the NotoSans and NotoSansCJKsc font files to use instead of the system fonts, which vary between hosts; none are bundled unless added to the build", metaVar = "DIR")
+    String fonts;
+
+    @Option(name = "--stats", usage = "Print the p50 and p99 time of every render phase at the end, or when the server stops")
+    boolean stats;
+
+    private RenderStats renderStats;
+
     public void doMain(String[] args) throws IOException {
         CmdLineParser parser = new CmdLineParser(this);
 
@@ -32,14 +102,248 @@ public class TenPrintCover {
             return;
         }
 
+        if(fonts != null) {
+            //Read when the fonts are first needed, so before anything is drawn.
+            System.setProperty(BundledFonts.FONTS_PROPERTY, fonts);
+        }
+
+        if(stats) {
+            renderStats = new RenderStats();
+            RenderProbe.setMetrics(renderStats);
+        }
+        try {
+            run(parser);
+        } finally {
+            if(renderStats != null && port == null) {
+                renderStats.print(System.out);
+            }
+        }
+    }
+
+    private void run(CmdLineParser parser) throws IOException {
+        if(bandHeight < 0) {
+            System.err.println("The band height must not be negative");
+            return;
+        }
+
+        if(supersampling < 1 || supersampling > Image.MAX_SUPERSAMPLING) {
+            System.err.println("The supersampling factor must be between 1 and " + Image.MAX_SUPERSAMPLING);
+            return;
+        }
+
+        if(supersampling > 1 && bandHeight > 0) {
+            System.err.println("--supersampling cannot be combined with --band-height, banded covers are not supersampled");
+            return;
+        }
+
+        if(pngLevel < 0 || pngLevel > 9) {
+            System.err.println("The deflate level must be between 0 and 9");
+            return;
+        }
+
+        if(manifest != null) {
+            doBatch();
+            return;
+        }
+
+        if(port != null) {
+            doServe();
+            return;
+        }
+
+        if(title == null || author == null || outfile == null) {
+            System.err.println("Options -t, -a and -o are required unless a manifest or a server port is given");
+            parser.printUsage(System.err);
+
+            return;
+        }
+
         if(subtitle == null) {
             subtitle = "";
         }
 
-        Cover cover = new Cover(title, subtitle, author, 400, 600);
+        if(sizes != null) {
+            Dimension[] dimensions;
+            try {
+                dimensions = parseSizes(sizes);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+            doSizes(dimensions);
+            return;
+        }
+
+        CoverSpec spec = new CoverSpec(title, subtitle, author, Cover.DEFAULT_WIDTH, Cover.DEFAULT_HEIGHT, outfile);
+        RenderContext context = renderContext();
+        if(cacheDir != null && !RenderContext.isSvg(outfile)) {
+            try (CoverCache cache = openCache()) {
+                Files.write(Paths.get(outfile), context.encode(spec, cache));
+            }
+            return;
+        }
+
+        context.cover(spec).save(outfile);
+    }
+
+    /**
+     * @return the context every mode renders with, so that the options give the same
+     * covers, and cache keys, whichever mode renders them
+     */
+    private RenderContext renderContext() {
+        RenderContext context = new RenderContext();
+        context.setRenderQuality(quality);
+        context.setSupersampling(supersampling);
+        context.setBandHeight(bandHeight);
+        if (pngLevel != 6 || pngParallel) {
+            context.setPngEncoder(new PngEncoder(pngLevel, pngParallel));
+        }
+        return context;
+    }
+
+    /**
+     * Render the cover at every size from one Cover, see {@link Cover#withSize}.
+     */
+    private void doSizes(Dimension[] dimensions) throws IOException {
+        RenderContext context = renderContext();
+        Cover cover = context.configure(new Cover(title, subtitle, author));
+        CoverCache cache = cacheDir != null && !RenderContext.isSvg(outfile) ? openCache() : null;
+        try {
+            for (Dimension size : dimensions) {
+                String filename = sizedName(outfile, size);
+                Cover variant = cover.withSize(size.width, size.height);
+                if (cache == null) {
+                    variant.save(filename);
+                    continue;
+                }
+
+                String key = context.key(new CoverSpec(title, subtitle, author, size.width, size.height, filename));
+                byte[] png = cache.get(key);
+                if (png == null) {
+                    png = variant.encode(filename);
+                    cache.put(key, png);
+                }
+                Files.write(Paths.get(filename), png);
+            }
+        } finally {
+            if (cache != null) {
+                cache.close();
+            }
+        }
+    }
+
+    /**
+     * Parse a list of sizes such as {@code 100x150,400x600}.
+     */
+    static Dimension[] parseSizes(String value) {
+        String[] parts = value.split(",");
+        Dimension[] dimensions = new Dimension[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int x = part.toLowerCase(Locale.ROOT).indexOf('x');
+            try {
+                int width = Integer.parseInt(part.substring(0, Math.max(x, 0)));
+                int height = Integer.parseInt(part.substring(x + 1));
+                if (width > 0 && height > 0) {
+                    dimensions[i] = new Dimension(width, height);
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                //fall through
+            }
+            throw new IllegalArgumentException("Invalid size " + part + ", expected WIDTHxHEIGHT");
+        }
+        return dimensions;
+    }
 
-        Image image = cover.draw();
-        image.save(outfile);
+    /**
+     * Insert the size before the extension: {@code cover.png} becomes {@code cover-400x600.png}.
+     */
+    static String sizedName(String filename, Dimension size) {
+        String suffix = "-" + size.width + "x" + size.height;
+        int dot = filename.lastIndexOf('.');
+        int slash = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf(File.separatorChar));
+        if (dot <= slash + 1) {
+            return filename + suffix;
+        }
+        return filename.substring(0, dot) + suffix + filename.substring(dot);
+    }
+
+    private void doServe() throws IOException {
+        CoverCache cache = cacheDir != null ? openCache() : null;
+        CoverServer server = new CoverServer(port, maxRenders, cache);
+        server.setRenderContext(renderContext());
+        server.start();
+        System.out.println("Serving covers on http://localhost:" + server.getPort() + "/cover");
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            if (renderStats != null) {
+                renderStats.print(System.out);
+            }
+            if (cache != null) {
+                try {
+                    cache.close();
+                } catch (IOException e) {
+                    System.err.println("Could not save the cache index: " + e.getMessage());
+                }
+            }
+        }));
+    }
+
+    private CoverCache openCache() throws IOException {
+        return new CoverCache(Paths.get(cacheDir), cacheSize * 1024 * 1024);
+    }
+
+    private void doBatch() throws IOException {
+        int[] shardRange;
+        try {
+            shardRange = BatchRenderer.parseShard(shard);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        if (archiveSize < 0) {
+            System.err.println("The archive size must not be negative");
+            return;
+        }
+
+        int[] stageThreads = null;
+        if (stages != null) {
+            try {
+                stageThreads = RenderPipeline.parseStages(stages);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+        }
+
+        Path checkpointFile = checkpoint != null ? Paths.get(checkpoint) : null;
+        BatchRenderer renderer = new BatchRenderer(threads, shardRange[0], shardRange[1], checkpointFile);
+        renderer.setRenderContext(renderContext());
+        if (stageThreads != null) {
+            renderer.setStages(stageThreads[0], stageThreads[1], stageThreads[2]);
+        }
+
+        CoverCache cache = cacheDir != null ? openCache() : null;
+        renderer.setCache(cache);
+
+        try (Manifest entries = Manifest.open(Paths.get(manifest));
+             CoverSink sink = target != null ? CoverSink.open(Paths.get(target), archiveSize * 1024 * 1024) : null) {
+            renderer.setSink(sink);
+            BatchRenderer.Summary summary = renderer.run(entries);
+            summary.print(System.out);
+            if (cache != null) {
+                System.out.println(cache);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (cache != null) {
+                cache.close();
+            }
+        }
     }
 
     public static void main(String... args) throws IOException {
@@ -0,0 +1,46 @@
+package org.apoka.graphics;
+
+import org.apoka.tenprintcover.Cover;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ImageSessionTest {
+    private static final String LETTERS = "qwertyuiopasdfghjkl:zxcvbnm,;?<>@[]1234567890.=-+*/ ";
+
+    /**
+     * Every grid size draws a different number of primitives, but the cover is drawn in
+     * one session, so it creates one graphics context whatever its title.
+     */
+    @Test
+    void coverCreatesOneContextWhateverItsGrid() {
+        for (Image.Backend backend : Image.Backend.values()) {
+            StringBuilder title = new StringBuilder();
+            for (int length = 1; length <= 60; length++) {
+                title.append(LETTERS.charAt((length - 1) % LETTERS.length()));
+                Cover cover = new Cover(title.toString(), "A subtitle", "An author");
+                cover.setBackend(backend);
+                long before = Image.contexts();
+                cover.draw();
+                assertEquals(1, Image.contexts() - before, backend + " cover titled " + title);
+            }
+        }
+    }
+
+    @Test
+    void sessionsNestAndCloseOnce() {
+        Image image = new Image(20, 20);
+        long before = Image.contexts();
+        image.session(() -> {
+            image.rect(0, 0, 20, 20, Color.WHITE);
+            image.session(() -> image.ellipse(10, 10, 8, 8, Color.BLACK));
+            image.triangle(0, 0, 10, 0, 0, 10, Color.RED);
+        });
+        assertEquals(1, Image.contexts() - before);
+
+        image.rect(0, 0, 5, 5, Color.BLUE);
+        assertEquals(2, Image.contexts() - before);
+    }
+}
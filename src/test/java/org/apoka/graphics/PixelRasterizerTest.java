@@ -0,0 +1,109 @@
+package org.apoka.graphics;
+
+import org.apoka.tenprintcover.Cover;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The direct backend against Java2D. Both fill the same rects; curves are sampled
+ * differently and may differ on their edge pixels, within a share of the pixels painted.
+ */
+class PixelRasterizerTest {
+    private static final int SIZE = 200;
+    private static final int SHAPES = 300;
+    private static final Color SHAPE = new Color(230, 0, 153);
+
+    @Test
+    void rectsAreIdentical() throws IOException {
+        assertEquals(0.0, differing(1, (image, random) -> image.rect(random.nextInt(SIZE) - 20, random.nextInt(SIZE) - 20,
+                random.nextInt(150), random.nextInt(150), SHAPE)));
+    }
+
+    @Test
+    void trianglesDifferOnFewPixels() throws IOException {
+        assertTrue(differing(2, (image, random) -> image.triangle(random.nextInt(SIZE), random.nextInt(SIZE),
+                random.nextInt(SIZE), random.nextInt(SIZE), random.nextInt(SIZE), random.nextInt(SIZE), SHAPE)) < 0.001);
+    }
+
+    @Test
+    void ellipsesDifferOnTheirEdges() throws IOException {
+        assertTrue(differing(3, (image, random) -> image.ellipse(random.nextInt(SIZE) - 20, random.nextInt(SIZE) - 20,
+                1 + random.nextInt(150), 1 + random.nextInt(150), SHAPE)) < 0.005);
+    }
+
+    @Test
+    void arcsDifferOnTheirEdges() throws IOException {
+        assertTrue(differing(4, (image, random) -> {
+            int s = 10 + random.nextInt(150);
+            image.arc(random.nextInt(SIZE) - s / 2, random.nextInt(SIZE) - s / 2, 2 * s, 2 * s,
+                    90 * random.nextInt(4), 90, SHAPE, 1 + s / 8);
+        }) < 0.05);
+    }
+
+    @Test
+    void coversDifferOnFewPixels() throws IOException {
+        String[] titles = {"Q", "Kafka on the Shore", "The Quick Brown Fox Jumps Over The Lazy Dog"};
+        for (String title : titles) {
+            BufferedImage[] images = new BufferedImage[2];
+            for (Image.Backend backend : Image.Backend.values()) {
+                Cover cover = new Cover(title, "", "Author");
+                cover.setBackend(backend);
+                images[backend.ordinal()] = decode(cover.draw());
+            }
+            int differing = 0;
+            for (int y = 0; y < Cover.DEFAULT_HEIGHT; y++) {
+                for (int x = 0; x < Cover.DEFAULT_WIDTH; x++) {
+                    if (images[0].getRGB(x, y) != images[1].getRGB(x, y)) {
+                        differing++;
+                    }
+                }
+            }
+            assertTrue(differing < Cover.DEFAULT_WIDTH * Cover.DEFAULT_HEIGHT / 200, title + ": " + differing);
+        }
+    }
+
+    /**
+     * Draw random shapes one at a time with both backends.
+     * @param shape draws a shape with parameters taken from the random generator
+     * @return the share of the pixels painted by Java2D that the direct backend paints
+     * differently
+     */
+    private static double differing(long seed, BiConsumer<Image, Random> shape) throws IOException {
+        long painted = 0;
+        long differing = 0;
+        for (int i = 0; i < SHAPES; i++) {
+            BufferedImage[] images = new BufferedImage[2];
+            for (Image.Backend backend : Image.Backend.values()) {
+                Image image = new Image(SIZE, SIZE, backend, Image.PixelFormat.RGB, RenderQuality.STANDARD);
+                shape.accept(image, new Random(seed * SHAPES + i));
+                images[backend.ordinal()] = decode(image);
+            }
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    int java2d = images[Image.Backend.JAVA2D.ordinal()].getRGB(x, y);
+                    if (java2d == SHAPE.getRGB()) {
+                        painted++;
+                    }
+                    if (java2d != images[Image.Backend.DIRECT.ordinal()].getRGB(x, y)) {
+                        differing++;
+                    }
+                }
+            }
+        }
+        return (double) differing / painted;
+    }
+
+    private static BufferedImage decode(Image image) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(image.toPng()));
+    }
+}
@@ -0,0 +1,62 @@
+package org.apoka.graphics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RasterPoolTest {
+    private static final long IMAGE_BYTES = 100 * 100 * 4;
+
+    /**
+     * BGR images draw through Java2D whatever backend they were asked with, and still go
+     * back under the key they were lent with.
+     */
+    @Test
+    void imagesAreReusedUnderTheirAcquireKey() {
+        RasterPool pool = new RasterPool();
+        for (Image.PixelFormat format : Image.PixelFormat.values()) {
+            for (Image.Backend backend : Image.Backend.values()) {
+                Image image = pool.acquire(100, 100, format, backend);
+                pool.release(image);
+                assertSame(image, pool.acquire(100, 100, format, backend), format + " " + backend);
+                pool.release(image);
+            }
+        }
+        int shapes = Image.PixelFormat.values().length * Image.Backend.values().length;
+        assertEquals(shapes, pool.getAllocations());
+        assertEquals(shapes, pool.getReuses());
+        assertEquals(0, pool.getLent());
+    }
+
+    @Test
+    void leakedImagesAreTakenOffTheCap() throws InterruptedException {
+        RasterPool pool = new RasterPool(IMAGE_BYTES, true, 60_000);
+        pool.acquire(100, 100, Image.PixelFormat.ARGB, Image.Backend.JAVA2D);
+        assertEquals(1, pool.getLent());
+        for (int i = 0; i < 100 && pool.getLent() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getLent());
+        assertEquals(1, pool.getLeaks());
+        assertEquals(0, pool.getBytes());
+
+        pool.acquire(100, 100, Image.PixelFormat.ARGB, Image.Backend.JAVA2D);
+        assertEquals(2, pool.getAllocations());
+        assertEquals(0, pool.getFallbacks());
+    }
+
+    @Test
+    void blockedAcquireFailsAfterTheMaximumWait() {
+        RasterPool pool = new RasterPool(IMAGE_BYTES, true, 200);
+        Image held = pool.acquire(100, 100, Image.PixelFormat.ARGB, Image.Backend.JAVA2D);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> pool.acquire(100, 100, Image.PixelFormat.ARGB, Image.Backend.JAVA2D));
+        assertTrue(e.getMessage().contains("1 rasters"), e.getMessage());
+        pool.release(held);
+        assertEquals(0, pool.getLent());
+    }
+}
@@ -0,0 +1,180 @@
+package org.apoka.graphics;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Line breaks against the layout {@link Image#text} used to do, measuring every
+ * candidate line and every chopped prefix with {@link FontMetrics#stringWidth}.
+ */
+class TextBlockTest {
+    private static final Font[] FONTS = {
+            new Font(Font.SANS_SERIF, Font.PLAIN, 12),
+            new Font(Font.SANS_SERIF, Font.BOLD, 40),
+            new Font(Font.SERIF, Font.ITALIC, 23).deriveFont(23.7f),
+            new Font(Font.MONOSPACED, Font.PLAIN, 17).deriveFont(16.3f),
+    };
+    private static final int[] WIDTHS = {30, 97, 250, 601};
+    private static final int[] HEIGHTS = {40, 10000};
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789éèüñçøß.,;:!?'-()";
+    private static final String CJK = "海辺のカフカ村上春樹ノルウェイの森色彩を持たない多崎つくると彼の巡礼の年一九八四";
+
+    @Test
+    void longTextsBreakAsBefore() {
+        Random random = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            String text = words(random, LETTERS, 300 + random.nextInt(400), " ");
+            assertSameLayouts(text);
+        }
+    }
+
+    /**
+     * Blanks other than single spaces leave empty words and untrimmed lines behind.
+     */
+    @Test
+    void irregularBlanksBreakAsBefore() {
+        Random random = new Random(11);
+        for (int i = 0; i < 20; i++) {
+            String text = words(random, LETTERS, 300 + random.nextInt(200), "  ", " ", "\t", "  ");
+            assertSameLayouts(" " + text + " ");
+        }
+    }
+
+    /**
+     * Ideographs are measured with the metrics, with or without spaces between them.
+     */
+    @Test
+    void cjkTextsBreakAsBefore() {
+        Random random = new Random(13);
+        for (int i = 0; i < 10; i++) {
+            assertSameLayouts(words(random, CJK, 300 + random.nextInt(200), " "));
+            assertSameLayouts(words(random, CJK + LETTERS, 300 + random.nextInt(200), " "));
+        }
+        assertSameLayouts(CJK + CJK + CJK);
+    }
+
+    /**
+     * A first word too wide for the line is cut with an ellipsis at the same character.
+     */
+    @Test
+    void wideWordsAreCutAsBefore() {
+        assertSameLayouts("Supercalifragilisticexpialidocious");
+        assertSameLayouts("Pneumonoultramicroscopicsilicovolcanoconiosis is a word");
+        assertSameLayouts("Short then Incomprehensibilities");
+        assertSameLayouts("W".repeat(300));
+        assertSameLayouts("i".repeat(300));
+        assertSameLayouts("Ünïcödéßtrîñgwïthäccéntséverywhere");
+        Random random = new Random(17);
+        for (int i = 0; i < 20; i++) {
+            assertSameLayouts(words(random, LETTERS, 20 + random.nextInt(300), ""));
+        }
+    }
+
+    private static void assertSameLayouts(String text) {
+        for (Font font : FONTS) {
+            for (int width : WIDTHS) {
+                for (int height : HEIGHTS) {
+                    String expected = reference(text, 5, 9, width, height, font);
+                    String actual = describe(TextBlock.layout(text, 5, 9, width, height, font));
+                    assertEquals(expected, actual, font + " " + width + "x" + height + ": " + text);
+                }
+            }
+        }
+    }
+
+    private static String describe(TextBlock block) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < block.getLineCount(); i++) {
+            description.append(block.getX()).append(',').append(block.getBaseline(i))
+                    .append(' ').append(block.getLine(i)).append('\n');
+        }
+        int[] result = block.result();
+        return description.append(result[0]).append(' ').append(result[1]).toString();
+    }
+
+    /**
+     * The layout of Image.text before cached advances, drawing into a description.
+     */
+    private static String reference(String text, int x, int y, int width, int height, Font font) {
+        Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        g.setFont(font);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        FontMetrics metrics = g.getFontMetrics(font);
+        g.dispose();
+
+        int fontHeight = metrics.getHeight();
+        int w_y = metrics.getAscent() + y;
+        List<String> drawn = new ArrayList<>();
+
+        String line = "";
+        int nlines = 1;
+        for(String word : text.split(" ")) {
+            int line_width = metrics.stringWidth(String.join(" ", line, word).trim());
+            if(line_width<width) {
+                line = String.join(" ", line, word).trim();
+            } else if(line.isEmpty()) {
+                drawn.add(x + "," + w_y + " " + chop(metrics, word, width));
+                return describe(drawn, nlines, fontHeight);
+            } else {
+                drawn.add(x + "," + w_y + " " + line);
+                line = word;
+                w_y += metrics.getHeight();
+
+                if(w_y > height) {
+                    return describe(drawn, nlines, fontHeight);
+                }
+                nlines++;
+            }
+        }
+        drawn.add(x + "," + w_y + " " + line);
+
+        return describe(drawn, nlines, fontHeight);
+    }
+
+    private static String chop(FontMetrics metrics, String word, int width) {
+        String total = "";
+
+        for(char c : word.toCharArray()) {
+            int total_width = metrics.stringWidth(total+c+"…");
+
+            if(total_width >= width) {
+                return total + "…";
+            }
+
+            total += c;
+        }
+
+        throw new RuntimeException("Should not be here, else 'word' fit into the bounding box");
+    }
+
+    private static String describe(List<String> drawn, int nlines, int fontHeight) {
+        StringBuilder description = new StringBuilder();
+        for (String line : drawn) {
+            description.append(line).append('\n');
+        }
+        return description.append(nlines).append(' ').append(fontHeight).toString();
+    }
+
+    /**
+     * Random words of 1 to 14 characters from the alphabet, up to about the length,
+     * each followed by one of the separators.
+     */
+    private static String words(Random random, String alphabet, int length, String... separators) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            int letters = 1 + random.nextInt(14);
+            for (int i = 0; i < letters; i++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            text.append(separators[random.nextInt(separators.length)]);
+        }
+        return text.toString().trim();
+    }
+}
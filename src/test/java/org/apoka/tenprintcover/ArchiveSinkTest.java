@@ -0,0 +1,111 @@
+package org.apoka.tenprintcover;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchiveSinkTest {
+    private static final byte[] DATA = new byte[1000];
+
+    @TempDir
+    Path dir;
+
+    /**
+     * A cover is reported stored once its archive is complete under its final name, and
+     * indexed at the same time.
+     */
+    @Test
+    void coversAreStoredWithTheirArchive() throws IOException {
+        Path target = dir.resolve("covers.zip");
+        AtomicInteger stored = new AtomicInteger();
+        try (ArchiveSink sink = new ArchiveSink(target, ArchiveSink.Format.ZIP, 2500)) {
+            sink.write("a.png", DATA, stored::incrementAndGet);
+            sink.write("b.png", DATA, stored::incrementAndGet);
+            assertEquals(0, stored.get());
+            assertFalse(Files.exists(dir.resolve("covers-00000.zip")));
+            assertEquals(0, Files.size(ArchiveSink.indexPath(target)));
+
+            sink.write("c.png", DATA, stored::incrementAndGet);
+            assertEquals(2, stored.get());
+            try (ZipFile zip = new ZipFile(dir.resolve("covers-00000.zip").toFile())) {
+                assertEquals(2, zip.size());
+            }
+            assertEquals(2, Files.readAllLines(ArchiveSink.indexPath(target)).size());
+
+            sink.flush();
+            assertEquals(3, stored.get());
+            assertTrue(Files.exists(dir.resolve("covers-00001.zip")));
+        }
+        assertFalse(Files.exists(dir.resolve("covers-00001.zip.partial")));
+    }
+
+    @Test
+    void partOfAnInterruptedRunIsOverwritten() throws IOException {
+        Path target = dir.resolve("covers.tar");
+        Files.write(dir.resolve("covers-00000.tar.partial"), new byte[12345]);
+        try (ArchiveSink sink = new ArchiveSink(target, ArchiveSink.Format.TAR, 1 << 20)) {
+            sink.write("a.png", DATA);
+        }
+        assertEquals(512 + 1024 + 2 * 512, Files.size(dir.resolve("covers-00000.tar")));
+        assertFalse(Files.exists(dir.resolve("covers-00000.tar.partial")));
+    }
+
+    /**
+     * The checkpoint of a batch only lists covers whose archive was completed.
+     */
+    @Test
+    void batchCheckpointsStoredCovers() throws Exception {
+        StringBuilder manifest = new StringBuilder("title,author,output\n");
+        List<String> outputs = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            outputs.add("cover-" + i + ".png");
+            manifest.append("Title ").append(i).append(",Author,cover-").append(i).append(".png\n");
+        }
+        Path manifestFile = dir.resolve("manifest.csv");
+        Files.write(manifestFile, manifest.toString().getBytes(StandardCharsets.UTF_8));
+        Path checkpoint = dir.resolve("checkpoint");
+        Path target = dir.resolve("covers.zip");
+
+        for (boolean pipeline : new boolean[]{false, true}) {
+            BatchRenderer renderer = new BatchRenderer(2, 0, 1, checkpoint);
+            if (pipeline) {
+                renderer.setStages(1, 1, 1);
+            }
+            Files.deleteIfExists(checkpoint);
+            try (CoverSink sink = CoverSink.open(target, 64 * 1024); Manifest entries = Manifest.open(manifestFile)) {
+                renderer.setSink(sink);
+                assertEquals(outputs.size(), renderer.run(entries).getRendered());
+            }
+            assertEquals(outputs.size(), Files.readAllLines(checkpoint).size(), pipeline ? "pipeline" : "batch");
+        }
+
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(dir, "covers-*.zip")) {
+            for (Path part : parts) {
+                try (ZipFile zip = new ZipFile(part.toFile())) {
+                    zip.stream().forEach(entry -> names.add(entry.getName()));
+                }
+            }
+        }
+        Collections.sort(names);
+        List<String> expected = new ArrayList<>(outputs);
+        expected.addAll(outputs);
+        Collections.sort(expected);
+        assertArrayEquals(expected.toArray(), names.toArray());
+    }
+}
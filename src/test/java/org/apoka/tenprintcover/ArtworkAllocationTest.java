@@ -0,0 +1,88 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Allocation budget of the artwork, measured with {@code ThreadMXBean.getThreadAllocatedBytes}
+ * for every grid size, with and without a glyph atlas.
+ */
+class ArtworkAllocationTest {
+    private static final String LETTERS = "qwertyuiopasdfghjkl:zxcvbnm,;?<>@[]1234567890.=-+*/ ";
+    /** Bytes a call on the direct backend may allocate, whatever the grid. */
+    private static final long BUDGET = 256;
+    /** Bytes Java2D may allocate for a call, and inside the JDK for each cell drawn in place. */
+    private static final long JAVA2D_BUDGET = 2048;
+    private static final long JAVA2D_CELL_BUDGET = 128;
+    private static final int WARMUP = 3000;
+    private static final int CALLS = 1000;
+
+    @Test
+    void directArtworkAllocatesNothingPerCell() {
+        for (boolean atlas : new boolean[]{false, true}) {
+            for (int count = 2; count <= 11; count++) {
+                long bytes = allocated(Image.Backend.DIRECT, atlas, count);
+                assertTrue(bytes <= BUDGET, describe(Image.Backend.DIRECT, atlas, count, bytes));
+            }
+        }
+    }
+
+    /**
+     * Java2D allocates inside the JDK for every ellipse, triangle and arc, but the cover
+     * itself allocates nothing per cell either, and cells copied from the atlas allocate
+     * nothing at all.
+     */
+    @Test
+    void java2dArtworkStaysWithinItsBudget() {
+        for (boolean atlas : new boolean[]{false, true}) {
+            for (int count = 2; count <= 11; count++) {
+                long bytes = allocated(Image.Backend.JAVA2D, atlas, count);
+                long budget = atlas ? BUDGET : JAVA2D_BUDGET + JAVA2D_CELL_BUDGET * count * count;
+                assertTrue(bytes <= budget, describe(Image.Backend.JAVA2D, atlas, count, bytes));
+            }
+        }
+    }
+
+    /**
+     * @return the bytes allocated by a {@link Cover#drawArtwork} call, once warmed up
+     */
+    private static long allocated(Image.Backend backend, boolean atlas, int count) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Cover cover = coverWithGrid(count);
+        cover.setGlyphAtlas(atlas ? new GlyphAtlas() : null);
+        Image image = new Image(Cover.DEFAULT_WIDTH, Cover.DEFAULT_HEIGHT, backend);
+        long[] bytes = new long[1];
+        image.session(() -> {
+            for (int i = 0; i < WARMUP; i++) {
+                cover.drawArtwork(image);
+            }
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < CALLS; i++) {
+                cover.drawArtwork(image);
+            }
+            bytes[0] = (threads.getThreadAllocatedBytes(thread) - before) / CALLS;
+        });
+        return bytes[0];
+    }
+
+    private static Cover coverWithGrid(int count) {
+        StringBuilder title = new StringBuilder();
+        for (int length = 1; length <= 80; length++) {
+            title.append(LETTERS.charAt((length - 1) % LETTERS.length()));
+            Cover cover = new Cover(title.toString(), "", "Author");
+            if (cover.breakGrid().count == count) {
+                return cover;
+            }
+        }
+        throw new IllegalArgumentException("No title gives a grid of " + count);
+    }
+
+    private static String describe(Image.Backend backend, boolean atlas, int count, long bytes) {
+        return backend + (atlas ? " with the atlas" : "") + ", grid " + count + ": " + bytes + " bytes per call";
+    }
+}
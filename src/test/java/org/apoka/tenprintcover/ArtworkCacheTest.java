@@ -0,0 +1,63 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.apoka.graphics.RenderQuality;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ArtworkCacheTest {
+    private static final String[] TITLES = {"Q", "The Quick Brown Fox Jumps Over The Lazy Dog", "Wq"};
+    private static final int[][] SIZES = {{400, 600}, {777, 1100}, {1600, 2400}};
+
+    /**
+     * Covers copying the cached layer encode to the same bytes as covers drawing their
+     * artwork in place, so they can share cache entries and ETags.
+     */
+    @Test
+    void cachedLayerGivesTheSameBytes() throws IOException {
+        for (int[] size : SIZES) {
+            for (String title : TITLES) {
+                for (Image.Backend backend : Image.Backend.values()) {
+                    byte[] expected = cover(title, size, backend, RenderQuality.STANDARD).draw().toPng();
+
+                    ArtworkCache cache = new ArtworkCache();
+                    Cover first = cover(title, size, backend, RenderQuality.STANDARD);
+                    first.setArtworkCache(cache);
+                    assertArrayEquals(expected, first.draw().toPng(), "drawn layer of " + describe(title, size, backend));
+                    Cover second = cover(title, size, backend, RenderQuality.STANDARD);
+                    second.setArtworkCache(cache);
+                    assertArrayEquals(expected, second.draw().toPng(), "copied layer of " + describe(title, size, backend));
+                    assertEquals(1, cache.getHits(), describe(title, size, backend));
+                }
+            }
+        }
+    }
+
+    @Test
+    void draftLayerGivesTheSameBytes() throws IOException {
+        for (String title : TITLES) {
+            byte[] expected = cover(title, SIZES[1], Image.Backend.JAVA2D, RenderQuality.DRAFT).draw().toPng();
+            ArtworkCache cache = new ArtworkCache();
+            for (int i = 0; i < 2; i++) {
+                Cover cover = cover(title, SIZES[1], Image.Backend.JAVA2D, RenderQuality.DRAFT);
+                cover.setArtworkCache(cache);
+                assertArrayEquals(expected, cover.draw().toPng(), describe(title, SIZES[1], Image.Backend.JAVA2D));
+            }
+        }
+    }
+
+    private static Cover cover(String title, int[] size, Image.Backend backend, RenderQuality quality) {
+        Cover cover = new Cover(title, "", "Author", size[0], size[1]);
+        cover.setBackend(backend);
+        cover.setRenderQuality(quality);
+        return cover;
+    }
+
+    private static String describe(String title, int[] size, Image.Backend backend) {
+        return "'" + title + "' at " + size[0] + "x" + size[1] + " on " + backend;
+    }
+}
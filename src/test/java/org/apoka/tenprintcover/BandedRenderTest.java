@@ -0,0 +1,61 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Banded saves against the whole cover drawn at once, pixel for pixel.
+ */
+class BandedRenderTest {
+    private static final String[][] BOOKS = {
+            {"Kafka on the Shore", "Haruki Murakami"},
+            {"The Quick Brown Fox Jumps Over The Lazy Dog", "Anonymous"},
+            {"Q", "Raymond Queneau"},
+    };
+    private static final int[][] SIZES = {{Cover.DEFAULT_WIDTH, Cover.DEFAULT_HEIGHT}, {100, 150}, {1200, 1800}};
+    private static final int[] BAND_HEIGHTS = {7, 64};
+
+    @Test
+    void bandsGiveThePixelsOfTheWholeCover() throws IOException {
+        for (Image.Backend backend : Image.Backend.values()) {
+            for (String[] book : BOOKS) {
+                for (int[] size : SIZES) {
+                    Cover whole = new Cover(book[0], "", book[1], size[0], size[1]);
+                    whole.setBackend(backend);
+                    BufferedImage expected = decode(whole.draw().toPng());
+                    for (int bandHeight : BAND_HEIGHTS) {
+                        Cover banded = new Cover(book[0], "", book[1], size[0], size[1]);
+                        banded.setBackend(backend);
+                        banded.setBandHeight(bandHeight);
+                        BufferedImage actual = decode(banded.encode("cover.png"));
+                        assertEquals(0, differing(expected, actual),
+                                backend + " " + book[0] + " " + size[0] + "x" + size[1] + " in bands of " + bandHeight);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int differing(BufferedImage expected, BufferedImage actual) {
+        int differing = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if ((expected.getRGB(x, y) & 0xffffff) != (actual.getRGB(x, y) & 0xffffff)) {
+                    differing++;
+                }
+            }
+        }
+        return differing;
+    }
+
+    private static BufferedImage decode(byte[] png) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+}
@@ -0,0 +1,77 @@
+package org.apoka.tenprintcover;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchRendererTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * A run killed while writing a record leaves part of it, "1" of "12": it does not mark
+     * cover 1 done, and the next records do not extend it.
+     */
+    @Test
+    void tornCheckpointRecordIsDropped() throws Exception {
+        Path manifestFile = manifest("title,author,output\n", 13);
+        Path checkpoint = dir.resolve("checkpoint");
+        Files.write(checkpoint, "0\n2\n1".getBytes(StandardCharsets.UTF_8));
+
+        BatchRenderer renderer = new BatchRenderer(2, 0, 1, checkpoint);
+        try (Manifest entries = Manifest.open(manifestFile)) {
+            BatchRenderer.Summary summary = renderer.run(entries);
+            assertEquals(11, summary.getRendered());
+            assertEquals(2, summary.getSkipped());
+        }
+        List<String> records = Files.readAllLines(checkpoint);
+        assertEquals(13, records.size());
+        assertEquals(13, records.stream().mapToLong(Long::parseLong).distinct().count());
+    }
+
+    @Test
+    void headerIsReadWhateverTheLocale() throws IOException {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try (Manifest entries = Manifest.open(manifest("TITLE,AUTHOR,OUTPUT\n", 1))) {
+            assertNotNull(entries.next().getSpec());
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    /**
+     * A size too large to draw fails its entry instead of the worker drawing it.
+     */
+    @Test
+    void hugeDimensionFailsItsEntry() throws IOException {
+        Path manifestFile = dir.resolve("manifest.csv");
+        Files.write(manifestFile, "title,author,output,width,height\nT,A,t.png,100000,100000\n".getBytes(StandardCharsets.UTF_8));
+        try (Manifest entries = Manifest.open(manifestFile)) {
+            Manifest.Entry entry = entries.next();
+            assertNull(entry.getSpec());
+            assertTrue(entry.getError().contains("expected 1 to " + Manifest.MAX_DIMENSION), entry.getError());
+        }
+    }
+
+    private Path manifest(String header, int covers) throws IOException {
+        StringBuilder manifest = new StringBuilder(header);
+        for (int i = 0; i < covers; i++) {
+            manifest.append("Title ").append(i).append(",Author,").append(dir.resolve("cover-" + i + ".png")).append('\n');
+        }
+        Path manifestFile = dir.resolve("manifest.csv");
+        Files.write(manifestFile, manifest.toString().getBytes(StandardCharsets.UTF_8));
+        return manifestFile;
+    }
+}
@@ -0,0 +1,60 @@
+package org.apoka.tenprintcover;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CoverCacheTest {
+    private static final byte[] PNG = new byte[1000];
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Covers stored after the last flush of a process that was killed still count
+     * against the budget of the next one, as the most recently used.
+     */
+    @Test
+    void coversStoredAfterTheLastFlushAreCounted() throws IOException {
+        CoverCache killed = new CoverCache(dir, 3 * PNG.length);
+        killed.put(key(0), PNG);
+        killed.flush();
+        killed.put(key(1), PNG);
+        killed.put(key(2), PNG);
+
+        CoverCache cache = new CoverCache(dir, 3 * PNG.length);
+        assertEquals(3, cache.getEntries());
+        assertEquals(3 * PNG.length, cache.getBytes());
+
+        cache.put(key(3), PNG);
+        assertEquals(3, cache.getEntries());
+        assertNull(cache.get(key(0)));
+        assertArrayEquals(PNG, cache.get(key(1)));
+    }
+
+    @Test
+    void corruptIndexLinesAreSkipped() throws IOException {
+        try (CoverCache cache = new CoverCache(dir, 10 * PNG.length)) {
+            cache.put(key(0), PNG);
+            cache.put(key(1), PNG);
+        }
+        String index = key(1) + " 1000\n" + key(0) + " 10x0\ngarbage\n" + key(0).substring(0, 20);
+        Files.write(dir.resolve("index"), index.getBytes(StandardCharsets.UTF_8));
+
+        CoverCache cache = new CoverCache(dir, 10 * PNG.length);
+        assertEquals(2, cache.getEntries());
+        assertEquals(2 * PNG.length, cache.getBytes());
+    }
+
+    private static String key(int i) {
+        return String.format("%064x", i + 0xabcdef);
+    }
+}
@@ -0,0 +1,80 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoverProcessorTest {
+    /**
+     * A cover failing with an error is published like any failed cover, and the stream
+     * completes instead of waiting for it.
+     */
+    @Test
+    void errorIsPublishedAsAFailedCover() throws InterruptedException {
+        Error error = new Error("Drawing failed");
+        AtomicBoolean thrown = new AtomicBoolean();
+        RenderContext context = new RenderContext();
+        context.setArtworkCache(new ArtworkCache() {
+            @Override
+            synchronized Image get(Key key) {
+                if (thrown.compareAndSet(false, true)) {
+                    throw error;
+                }
+                return super.get(key);
+            }
+        });
+
+        CoverProcessor processor = new CoverProcessor(1);
+        processor.setRenderContext(context);
+        List<CoverProcessor.Result> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch complete = new CountDownLatch(1);
+        try (SubmissionPublisher<CoverSpec> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            processor.subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(CoverProcessor.Result result) {
+                    results.add(result);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                    complete.countDown();
+                }
+            });
+            for (int i = 0; i < 3; i++) {
+                publisher.submit(new CoverSpec("Title " + i, "", "Author", "cover-" + i + ".png"));
+            }
+        }
+        assertTrue(complete.await(60, TimeUnit.SECONDS));
+        assertEquals(3, results.size());
+        assertSame(error, results.get(0).getError());
+        for (CoverProcessor.Result result : results.subList(1, 3)) {
+            assertNull(result.getError());
+            assertNotNull(result.getData());
+        }
+        assertEquals(1, processor.getFailed());
+    }
+}
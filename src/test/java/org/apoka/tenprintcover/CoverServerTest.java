@@ -0,0 +1,101 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoverServerTest {
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Failures are answered with a 500 that tells nothing of their cause.
+     */
+    @Test
+    void failuresAnswerAGenericError() throws Exception {
+        CoverCache cache = new CoverCache(dir, 1 << 20) {
+            @Override
+            public byte[] get(String key) throws IOException {
+                throw new IOException("Disk on fire");
+            }
+        };
+        CoverServer server = new CoverServer(0, 1, cache);
+        server.start();
+        try {
+            HttpResponse<String> response = get(server, "/cover?t=Title&a=Author");
+            assertEquals(500, response.statusCode());
+            assertFalse(response.body().contains("fire"), response.body());
+            assertFalse(response.headers().firstValue("ETag").isPresent());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * With every thread busy and the queue full, requests are answered with 503 right
+     * away instead of waiting for a thread.
+     */
+    @Test
+    void requestsBeyondTheQueueAreRejected() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RenderContext context = new RenderContext();
+        context.setArtworkCache(new ArtworkCache() {
+            @Override
+            synchronized Image get(Key key) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.get(key);
+            }
+        });
+        CoverServer server = new CoverServer(0, 1, null);
+        server.setRenderContext(context);
+        server.start();
+        try {
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                responses.add(CLIENT.sendAsync(request(server, "/cover?t=Title" + i + "&a=Author"),
+                        HttpResponse.BodyHandlers.ofString()));
+            }
+            HttpResponse<String> rejected = CompletableFuture.anyOf(responses.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(response -> (HttpResponse<String>) response).get();
+            assertEquals(503, rejected.statusCode());
+            assertTrue(rejected.body().contains("Too many requests"), rejected.body());
+            release.countDown();
+            for (CompletableFuture<HttpResponse<String>> response : responses) {
+                int status = response.get().statusCode();
+                assertTrue(status == 200 || status == 503, Integer.toString(status));
+            }
+        } finally {
+            release.countDown();
+            server.stop();
+        }
+    }
+
+    private static HttpResponse<String> get(CoverServer server, String path) throws IOException, InterruptedException {
+        return CLIENT.send(request(server, path), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpRequest request(CoverServer server, String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path)).build();
+    }
+}
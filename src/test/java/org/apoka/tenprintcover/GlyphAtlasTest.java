@@ -0,0 +1,76 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.apoka.graphics.RenderQuality;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GlyphAtlasTest {
+    private static final String[] TITLES = {"Q", "The Quick Brown Fox Jumps Over The Lazy Dog", "Wq",
+            "qwertyuiopasdfghjkl:zxcvbnm,;?<>@[]1234567890.=-+*/ "};
+    private static final int[][] SIZES = {{400, 600}, {777, 1100}, {1000, 1500}, {1600, 2400}};
+
+    /**
+     * The direct backend rasterizes a shape the same wherever it is, so covers copying
+     * tiles need no key of their own.
+     */
+    @Test
+    void directTilesGiveTheSameBytes() throws IOException {
+        for (RenderQuality quality : new RenderQuality[]{RenderQuality.STANDARD, RenderQuality.DRAFT}) {
+            for (int[] size : SIZES) {
+                for (String title : TITLES) {
+                    byte[] expected = cover(title, size, Image.Backend.DIRECT, quality).draw().toPng();
+                    Cover cover = cover(title, size, Image.Backend.DIRECT, quality);
+                    cover.setGlyphAtlas(new GlyphAtlas());
+                    assertArrayEquals(expected, cover.draw().toPng(),
+                            "'" + title + "' at " + size[0] + "x" + size[1] + " " + quality);
+                }
+            }
+        }
+    }
+
+    @Test
+    void tilesAreRasterizedPerBackendAndQuality() {
+        GlyphAtlas atlas = new GlyphAtlas();
+        String title = "Wq";
+        for (Image.Backend backend : Image.Backend.values()) {
+            for (RenderQuality quality : new RenderQuality[]{RenderQuality.STANDARD, RenderQuality.DRAFT}) {
+                Cover cover = cover(title, SIZES[0], backend, quality);
+                cover.setGlyphAtlas(atlas);
+                cover.draw();
+            }
+        }
+        assertEquals(4 * title.length(), atlas.getMisses());
+    }
+
+    /**
+     * With Java2D, tiles may differ from shapes drawn in place on a few edge pixels, so a
+     * context only hands its atlas to covers on the direct backend: its Java2D covers are
+     * the plain ones, under the plain keys.
+     */
+    @Test
+    void java2dContextDrawsShapesInPlace() throws IOException {
+        RenderContext context = new RenderContext();
+        for (int[] size : new int[][]{{100, 150}, {1200, 1800}}) {
+            CoverSpec spec = new CoverSpec("Kafka on the Shore", "", "Haruki Murakami", size[0], size[1], null);
+            Cover plain = spec.toCover();
+            plain.setPixelFormat(Image.PixelFormat.RGB);
+            Cover cover = context.cover(spec);
+            assertArrayEquals(plain.draw().toPng(), cover.draw().toPng(), size[0] + "x" + size[1]);
+            cover.release();
+            assertEquals(spec.key(), context.key(spec));
+        }
+        assertEquals(0, context.getGlyphAtlas().getMisses());
+    }
+
+    private static Cover cover(String title, int[] size, Image.Backend backend, RenderQuality quality) {
+        Cover cover = new Cover(title, "", "Author", size[0], size[1]);
+        cover.setBackend(backend);
+        cover.setRenderQuality(quality);
+        return cover;
+    }
+}
@@ -0,0 +1,143 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.PngEncoder;
+import org.apoka.graphics.RenderQuality;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderContextTest {
+    private static final String[][] BOOKS = {
+            {"Kafka on the Shore", "Haruki Murakami"},
+            {"The Quick Brown Fox Jumps Over The Lazy Dog", "Anonymous"},
+            {"Q", "Raymond Queneau"},
+    };
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Every mode renders through the context, so it honors the render settings and gives
+     * the bytes of {@link RenderContext#encode}.
+     */
+    @Test
+    void everyModeRendersLikeTheContext() throws Exception {
+        RenderContext context = new RenderContext();
+        context.setRenderQuality(RenderQuality.DRAFT);
+        context.setBandHeight(64);
+
+        List<CoverSpec> specs = new ArrayList<>();
+        StringBuilder manifest = new StringBuilder("title,author,output\n");
+        for (int i = 0; i < BOOKS.length; i++) {
+            String output = dir.resolve("cover-" + i + ".png").toString();
+            specs.add(new CoverSpec(BOOKS[i][0], "", BOOKS[i][1], output));
+            manifest.append(BOOKS[i][0]).append(',').append(BOOKS[i][1]).append(',').append(output).append('\n');
+        }
+        Path manifestFile = dir.resolve("manifest.csv");
+        Files.write(manifestFile, manifest.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (boolean pipeline : new boolean[]{false, true}) {
+            BatchRenderer renderer = new BatchRenderer(2);
+            renderer.setRenderContext(context);
+            if (pipeline) {
+                renderer.setStages(1, 1, 1);
+            }
+            try (Manifest entries = Manifest.open(manifestFile)) {
+                assertEquals(specs.size(), renderer.run(entries).getRendered());
+            }
+            for (CoverSpec spec : specs) {
+                assertArrayEquals(context.encode(spec), Files.readAllBytes(Path.of(spec.getOutput())),
+                        (pipeline ? "pipeline " : "batch ") + spec);
+            }
+        }
+
+        CoverProcessor processor = new CoverProcessor(2);
+        processor.setRenderContext(context);
+        List<CoverProcessor.Result> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch complete = new CountDownLatch(1);
+        try (SubmissionPublisher<CoverSpec> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            processor.subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(CoverProcessor.Result result) {
+                    results.add(result);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    complete.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    complete.countDown();
+                }
+            });
+            specs.forEach(publisher::submit);
+        }
+        assertTrue(complete.await(60, TimeUnit.SECONDS));
+        assertEquals(specs.size(), results.size());
+        for (CoverProcessor.Result result : results) {
+            assertArrayEquals(context.encode(result.getSpec()), result.getData(), "processor " + result.getSpec());
+        }
+    }
+
+    @Test
+    void settingsChangingTheBytesChangeTheKey() throws IOException {
+        CoverSpec spec = new CoverSpec("Kafka on the Shore", "", "Haruki Murakami", null);
+        RenderContext plain = new RenderContext();
+        RenderContext draft = new RenderContext();
+        draft.setRenderQuality(RenderQuality.DRAFT);
+        RenderContext banded = new RenderContext();
+        banded.setBandHeight(100);
+        RenderContext supersampled = new RenderContext();
+        supersampled.setSupersampling(2);
+        RenderContext compressed = new RenderContext();
+        compressed.setPngEncoder(new PngEncoder(9, false));
+
+        List<String> keys = List.of(plain.key(spec), draft.key(spec), banded.key(spec), supersampled.key(spec),
+                compressed.key(spec));
+        assertEquals(keys.size(), keys.stream().distinct().count());
+        assertFalse(Arrays.equals(plain.encode(spec), draft.encode(spec)));
+        assertFalse(Arrays.equals(plain.encode(spec), compressed.encode(spec)));
+
+        //The default encoder gives the same bytes, under the same key.
+        RenderContext encoder = new RenderContext();
+        encoder.setPngEncoder(new PngEncoder());
+        assertEquals(plain.key(spec), encoder.key(spec));
+
+        //Banded covers are not supersampled.
+        assertThrows(IllegalStateException.class, () -> supersampled.setBandHeight(100));
+        assertThrows(IllegalStateException.class, () -> banded.setSupersampling(2));
+    }
+
+    @Test
+    void svgIsRecognizedWhateverTheCase() {
+        assertTrue(RenderContext.isSvg("cover.SVG"));
+        assertFalse(RenderContext.isSvg("cover.png"));
+        assertFalse(RenderContext.isSvg(null));
+    }
+}
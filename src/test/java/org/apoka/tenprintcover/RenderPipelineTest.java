@@ -0,0 +1,75 @@
+package org.apoka.tenprintcover;
+
+import org.apoka.graphics.Image;
+import org.apoka.graphics.RasterPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RenderPipelineTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * An error drawing a cover fails that cover only: its raster goes back to the pool, the
+     * other covers are written and the close throws the error instead of waiting for a
+     * thread that died.
+     */
+    @Test
+    @Timeout(60)
+    void errorInAStageFailsItsCoverOnly() {
+        Error error = new Error("Drawing failed");
+        AtomicBoolean thrown = new AtomicBoolean();
+        RenderContext context = new RenderContext();
+        RasterPool pool = new RasterPool();
+        context.setRasterPool(pool);
+        context.setArtworkCache(new ArtworkCache() {
+            @Override
+            synchronized Image get(Key key) {
+                if (thrown.compareAndSet(false, true)) {
+                    throw error;
+                }
+                return super.get(key);
+            }
+        });
+
+        Set<Long> written = Collections.synchronizedSet(new HashSet<>());
+        Set<Long> failed = Collections.synchronizedSet(new HashSet<>());
+        RenderPipeline pipeline = new RenderPipeline(1, 1, 1, 1, null, new RenderPipeline.Listener() {
+            @Override
+            public void written(long id, CoverSpec spec) {
+                written.add(id);
+            }
+
+            @Override
+            public void failed(long id, CoverSpec spec, Throwable e) {
+                assertSame(error, e);
+                failed.add(id);
+            }
+        });
+        pipeline.setRenderContext(context);
+        Error closed = assertThrows(Error.class, () -> {
+            try (pipeline) {
+                for (long id = 0; id < 4; id++) {
+                    pipeline.submit(id, new CoverSpec("Title " + id, "", "Author", dir.resolve(id + ".png").toString()));
+                }
+            }
+        });
+
+        assertSame(error, closed);
+        assertEquals(Set.of(0L), failed);
+        assertEquals(Set.of(1L, 2L, 3L), written);
+        assertEquals(1, pipeline.getStages().get(0).getFailed());
+        assertEquals(0, pool.getLent());
+    }
+}